@@ -18,52 +18,128 @@
  */
 package me.mayo.telnetkek;
 
-import me.mayo.telnetkek.player.PlayerListDecoder;
 import me.mayo.telnetkek.player.PlayerInfo;
+import me.mayo.telnetkek.player.PlayerListDecoder;
 import java.awt.Color;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.logging.Level;
+import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.swing.Timer;
+import java.util.logging.Level;
+import me.mayo.telnetkek.net.CaptureWriter;
+import me.mayo.telnetkek.net.CommandScheduler;
+import me.mayo.telnetkek.net.ConnectionStats;
+import me.mayo.telnetkek.net.LineEvent;
+import me.mayo.telnetkek.net.LineRingBuffer;
+import me.mayo.telnetkek.net.RawLine;
+import me.mayo.telnetkek.net.ReconnectPolicy;
+import me.mayo.telnetkek.net.ReplayDriver;
+import me.mayo.telnetkek.net.SelectorLoop;
+import me.mayo.telnetkek.net.TelnetChannel;
+import me.mayo.telnetkek.store.LogArchive;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.apache.commons.net.telnet.TelnetClient;
 
 public class ConnectionManager
 {
 
     private static final Pattern LOGIN_MESSAGE = Pattern.compile("\\[.+?@BukkitTelnet\\]\\$ Logged in as (.+)\\.");
-
-    private final TelnetClient telnetClient = new TelnetClient();
-    private Thread connectThread;
+    private static final long CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final String ARCHIVE_DIRECTORY = "archive";
+    private static final int RECENT_MESSAGES = 64;
+    private static final byte[] LOGIN_MARKER = RawLine.ascii("@BukkitTelnet]$ Logged in as ");
+
+    private final SelectorLoop selectorLoop;
+    private final SessionView view;
+    private final CommandScheduler commandScheduler;
+    private final ScheduledExecutorService scheduler;
+    private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+    private final ConnectionStats stats = new ConnectionStats();
+    private final Executor consumerExecutor;
+    private final ParallelClassifier parallelClassifier;
+    private final RepeatFilter repeatFilter = new RepeatFilter();
+    // Recently dispatched lines by sequence, for the copies the repeat filter points back to
+    private final Map<Long, TelnetMessage> recentMessages = new LinkedHashMap<Long, TelnetMessage>(64, 0.75f, false)
+    {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, TelnetMessage> eldest)
+        {
+            return size() > RECENT_MESSAGES;
+        }
+    };
+    private LineRingBuffer lineRing;
+    private volatile CaptureWriter capture;
+    private volatile LogArchive archive;
+    private volatile Thread replayThread;
+    private volatile long connectStartNanos;
+    private volatile boolean reconnectPending = false;
+    private ScheduledFuture<?> reconnectFuture;
+    private volatile boolean disconnectRequested = false;
+    private volatile boolean autoReconnect = false;
+    private long lostAt = 0;
+    private volatile long lastRecoveryMillis = -1;
+    private volatile int recoveryCount = 0;
+    private ServerEntry server;
+    private volatile TelnetChannel telnetChannel;
+    private volatile IOException closeCause;
+    private volatile Thread connectThread;
     private String hostname;
     private int port;
-    private boolean canDoDisconnect = false;
-    private String loginName;
+    private Charset charset = StandardCharsets.UTF_8;
+    private volatile boolean canDoDisconnect = false;
+    private volatile String loginName;
 
-    public ConnectionManager()
+    public ConnectionManager(final SelectorLoop selectorLoop, final ScheduledExecutorService scheduler, final Executor consumerExecutor, final ForkJoinPool classifierPool, final SessionView view)
     {
+        this.selectorLoop = selectorLoop;
+        this.view = view;
+        this.scheduler = scheduler;
+        this.consumerExecutor = consumerExecutor;
+        this.parallelClassifier = new ParallelClassifier(classifierPool, ParallelClassifier.DEFAULT_THRESHOLD, this::prepareMessage, this.stats);
+        this.commandScheduler = new CommandScheduler(scheduler, this::sendCommand);
     }
 
     public void triggerConnect(final String hostname, final int port)
     {
-        final MainPanel btc = TelnetKek.mainPanel;
+        if (this.connectThread != null)
+        {
+            return;
+        }
 
-        btc.getBtnConnect().setEnabled(false);
-        btc.getTxtServer().setEnabled(false);
-        btc.getBtnDisconnect().setEnabled(true);
+        this.disconnectRequested = false;
+        cancelReconnect();
 
-        btc.writeToConsole(new ConsoleMessage("Connecting to " + hostname + ":" + port + "", Color.GREEN));
+        this.view.writeToConsole(new ConsoleMessage("Connecting to " + hostname + ":" + port + "", Color.GREEN));
 
         this.hostname = hostname;
         this.port = port;
         this.loginName = null;
-        updateTitle(true);
 
         startConnectThread();
+
+        stateChanged();
+    }
+
+    public void triggerConnect(final ServerEntry server)
+    {
+        this.server = server;
+        this.autoReconnect = server.isAutoReconnect();
+        this.charset = server.toCharset();
+        triggerConnect(server.getAddress());
     }
 
     public void triggerConnect(final String hostnameAndPort)
@@ -91,73 +167,374 @@ public class ConnectionManager
     }
 
     public void triggerDisconnect()
+    {
+        this.disconnectRequested = true;
+
+        if (cancelReconnect())
+        {
+            this.view.writeToConsole(new ConsoleMessage("Reconnect cancelled.", Color.RED));
+            stateChanged();
+        }
+
+        final Thread _replayThread = this.replayThread;
+        if (_replayThread != null)
+        {
+            _replayThread.interrupt();
+        }
+
+        closeChannel();
+    }
+
+    private synchronized boolean cancelReconnect()
+    {
+        if (!this.reconnectPending)
+        {
+            return false;
+        }
+
+        this.reconnectPending = false;
+        if (this.reconnectFuture != null)
+        {
+            this.reconnectFuture.cancel(false);
+            this.reconnectFuture = null;
+        }
+
+        return true;
+    }
+
+    private void closeChannel()
     {
         if (this.canDoDisconnect)
         {
             this.canDoDisconnect = false;
 
-            try
-            {
-                this.telnetClient.disconnect();
-            }
-            catch (IOException ex)
+            final TelnetChannel _telnetChannel = this.telnetChannel;
+            if (_telnetChannel != null)
             {
-                TelnetKek.LOGGER.log(Level.SEVERE, null, ex);
+                _telnetChannel.disconnect();
             }
         }
     }
 
     public void finishDisconnect()
     {
-        final MainPanel btc = TelnetKek.mainPanel;
-
-        btc.getBtnConnect().setEnabled(true);
-        btc.getTxtServer().setEnabled(true);
-        btc.getBtnDisconnect().setEnabled(false);
-        btc.getBtnSend().setEnabled(false);
-        btc.getTxtCommand().setEnabled(false);
+        this.commandScheduler.cancelAll();
 
         loginName = null;
 
-        updateTitle(false);
+        stateChanged();
 
-        btc.writeToConsole(new ConsoleMessage("Disconnected.", Color.RED));
+        this.view.setPlayerListStale(true);
+        this.view.writeToConsole(new ConsoleMessage("Disconnected.", Color.RED));
     }
 
-    public void sendCommand(final String text)
+    private synchronized void scheduleReconnect()
     {
-        sendCommand(text, true);
+        if (!this.reconnectPending)
+        {
+            return;
+        }
+
+        if (this.lostAt == 0)
+        {
+            this.lostAt = System.nanoTime();
+        }
+
+        final long delay = this.reconnectPolicy.nextDelayMillis();
+        this.view.writeToConsole(new ConsoleMessage(String.format("Reconnecting in %.1f seconds (attempt %d)...",
+                delay / 1000.0, this.reconnectPolicy.getAttempt()), Color.ORANGE));
+
+        this.reconnectFuture = this.scheduler.schedule(()
+                -> 
+                {
+                    synchronized (this)
+                    {
+                        if (!this.reconnectPending)
+                        {
+                            return;
+                        }
+                        this.reconnectPending = false;
+                        this.reconnectFuture = null;
+                    }
+                    triggerConnect(this.hostname, this.port);
+        }, delay, TimeUnit.MILLISECONDS);
+
+        stateChanged();
     }
 
-    public void sendCommand(final String text, final boolean verbose)
+    private void loginDetected()
     {
-        try
+        this.reconnectPolicy.reset();
+
+        if (this.lostAt != 0)
         {
-            if (verbose)
-            {
-                TelnetKek.mainPanel.writeToConsole(new ConsoleMessage(":" + text));
-            }
+            this.lastRecoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lostAt);
+            this.recoveryCount++;
+            this.lostAt = 0;
 
-            final OutputStream out = this.telnetClient.getOutputStream();
-            if (out == null)
-            {
-                return;
-            }
+            this.view.writeToConsole(new ConsoleMessage(String.format("Session recovered after %.1f seconds.", this.lastRecoveryMillis / 1000.0), Color.GREEN));
+        }
+    }
+
+    public boolean isAutoReconnect()
+    {
+        return this.autoReconnect;
+    }
+
+    public void setAutoReconnect(final boolean autoReconnect)
+    {
+        this.autoReconnect = autoReconnect;
 
-            this.telnetClient.getOutputStream().write((text + "\r\n").getBytes(StandardCharsets.UTF_8));
-            this.telnetClient.getOutputStream().flush();
+        if (this.server != null)
+        {
+            this.server.setAutoReconnect(autoReconnect);
+            TelnetKek.config.save();
         }
-        catch (IOException ex)
+    }
+
+    // Time from losing the connection to the next successful login, -1 if it never recovered
+    public long getLastRecoveryMillis()
+    {
+        return this.lastRecoveryMillis;
+    }
+
+    public int getRecoveryCount()
+    {
+        return this.recoveryCount;
+    }
+
+    public boolean isActive()
+    {
+        return this.connectThread != null || this.reconnectPending;
+    }
+
+    public boolean isConnected()
+    {
+        return this.canDoDisconnect;
+    }
+
+    public SessionView getView()
+    {
+        return this.view;
+    }
+
+    public String getLoginName()
+    {
+        return this.loginName;
+    }
+
+    public String getHostname()
+    {
+        return this.hostname;
+    }
+
+    // One directory per server, shared by every session and run that connects to it
+    public File getArchiveDirectory()
+    {
+        final String _hostname = this.hostname;
+        return _hostname == null ? null : new File(ARCHIVE_DIRECTORY, (_hostname + "-" + this.port).replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    public int getPort()
+    {
+        return this.port;
+    }
+
+    public boolean sendCommand(final String text)
+    {
+        return sendCommand(text, true);
+    }
+
+    public boolean sendCommand(final String text, final boolean verbose)
+    {
+        if (verbose)
         {
-            TelnetKek.LOGGER.log(Level.SEVERE, null, ex);
+            this.view.writeToConsole(new ConsoleMessage(":" + text));
         }
+
+        final TelnetChannel _telnetChannel = this.telnetChannel;
+        if (_telnetChannel == null || !this.canDoDisconnect)
+        {
+            return false;
+        }
+
+        if (!_telnetChannel.getCommandWriter().offer(text))
+        {
+            this.view.writeToConsole(new ConsoleMessage("Outbound queue is full, command dropped: " + text, Color.RED));
+            return false;
+        }
+
+        this.stats.outboundQueued(_telnetChannel.getCommandWriter().getQueueDepth());
+        return true;
+    }
+
+    public ConnectionStats getStats()
+    {
+        return this.stats;
+    }
+
+    public ConnectionStats.Snapshot getStatsSnapshot()
+    {
+        return this.stats.snapshot(getOutboundQueueDepth());
+    }
+
+    public int getOutboundQueueDepth()
+    {
+        final TelnetChannel _telnetChannel = this.telnetChannel;
+        return _telnetChannel == null ? 0 : _telnetChannel.getCommandWriter().getQueueDepth();
+    }
+
+    public boolean isOutboundBackpressured()
+    {
+        final TelnetChannel _telnetChannel = this.telnetChannel;
+        return _telnetChannel != null && _telnetChannel.getCommandWriter().isBackpressured();
     }
 
     public void sendDelayedCommand(final String text, final boolean verbose, final int delay)
     {
-        final Timer timer = new Timer(delay, event -> sendCommand(text, verbose));
-        timer.setRepeats(false);
-        timer.start();
+        sendDelayedCommand(text, verbose, delay, CommandScheduler.Lane.NORMAL);
+    }
+
+    public void sendDelayedCommand(final String text, final boolean verbose, final int delay, final CommandScheduler.Lane lane)
+    {
+        this.commandScheduler.submit(text, verbose, delay, lane);
+    }
+
+    public CommandScheduler getCommandScheduler()
+    {
+        return this.commandScheduler;
+    }
+
+    // Consumers see every line of every connection of this session, in order and on a pooled thread
+    public LineRingBuffer.Consumer addLineConsumer(final String name, final LineRingBuffer.Handler handler)
+    {
+        return getLineRing().addConsumer(name, handler);
+    }
+
+    public List<LineRingBuffer.Consumer> getLineConsumers()
+    {
+        return getLineRing().getConsumers();
+    }
+
+    // Keeps recording across reconnects until stopped
+    public synchronized void startCapture(final File file) throws IOException
+    {
+        stopCapture();
+
+        this.capture = new CaptureWriter(file);
+        final TelnetChannel _telnetChannel = this.telnetChannel;
+        if (_telnetChannel != null)
+        {
+            _telnetChannel.setCapture(this.capture);
+        }
+
+        this.view.writeToConsole(new ConsoleMessage("Recording to " + file + ".", Color.GREEN));
+    }
+
+    public synchronized void stopCapture()
+    {
+        final CaptureWriter _capture = this.capture;
+        if (_capture == null)
+        {
+            return;
+        }
+        this.capture = null;
+
+        final TelnetChannel _telnetChannel = this.telnetChannel;
+        if (_telnetChannel != null)
+        {
+            _telnetChannel.setCapture(null);
+        }
+        _capture.close();
+
+        final long dropped = _capture.getDroppedReads();
+        this.view.writeToConsole(new ConsoleMessage("Recording stopped, " + _capture.getBytesWritten() + " bytes written to " + _capture.getFile()
+                + (dropped > 0 ? ", " + dropped + " reads dropped while the disk fell behind." : "."), Color.GREEN));
+    }
+
+    public boolean isCapturing()
+    {
+        return this.capture != null;
+    }
+
+    public void triggerReplay(final File file, final double speed)
+    {
+        if (this.connectThread != null)
+        {
+            return;
+        }
+
+        this.connectThread = new Thread(()
+                -> 
+                {
+                    try
+                    {
+                        replay(file, speed);
+                    }
+                    catch (IOException ex)
+                    {
+                        this.view.writeToConsole(new ConsoleMessage(ex.getMessage() + SystemUtils.LINE_SEPARATOR + ExceptionUtils.getStackTrace(ex)));
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        this.view.writeToConsole(new ConsoleMessage("Replay stopped.", Color.RED));
+                    }
+
+                    this.replayThread = null;
+                    this.connectThread = null;
+                    stateChanged();
+        }, "TelnetKek-Replay-" + file.getName());
+        this.replayThread = this.connectThread;
+        this.connectThread.start();
+
+        stateChanged();
+    }
+
+    // Feeds a capture through the same decoding, framing and consumers as a live connection
+    public ReplayDriver.Result replay(final File file, final double speed) throws IOException, InterruptedException
+    {
+        this.view.writeToConsole(new ConsoleMessage("Replaying " + file + (speed > 0 ? " at " + speed + "x" : " as fast as possible") + ".", Color.GREEN));
+
+        final ReplayDriver.Result result = new ReplayDriver(file, speed, this.charset, getLineRing(), this.stats).run();
+
+        this.view.writeToConsole(new ConsoleMessage(result.toString(), Color.GREEN));
+        return result;
+    }
+
+    private synchronized LineRingBuffer getLineRing()
+    {
+        if (this.lineRing == null)
+        {
+            this.lineRing = new LineRingBuffer(this.charset, LineRingBuffer.DEFAULT_CAPACITY, this.consumerExecutor, this.selectorLoop::execute, ()
+                    -> 
+                    {
+                        final TelnetChannel _telnetChannel = this.telnetChannel;
+                        if (_telnetChannel != null)
+                        {
+                            _telnetChannel.refreshReadInterest();
+                        }
+            });
+            // A player list that fails to decode is shown by the console, in order with the lines around it
+            final LineRingBuffer.Consumer playerListConsumer = this.lineRing.addConsumer("player-list", this::playerListEvent);
+            this.lineRing.addConsumer("console", new LineRingBuffer.BatchHandler()
+            {
+                @Override
+                public void onBatchStart(LineRingBuffer.Batch batch)
+                {
+                    ConnectionManager.this.repeatFilter.mark(batch);
+                    ConnectionManager.this.parallelClassifier.prepare(batch);
+                }
+
+                @Override
+                public void onEvent(LineEvent event, boolean endOfBatch)
+                {
+                    consoleEvent(event, endOfBatch);
+                }
+            }, playerListConsumer);
+            this.lineRing.addConsumer("archive", this::archiveEvent);
+        }
+
+        return this.lineRing;
     }
 
     private void startConnectThread()
@@ -170,109 +547,267 @@ public class ConnectionManager
         this.connectThread = new Thread(()
                 -> 
                 {
-                    final MainPanel btc = TelnetKek.mainPanel;
+                    final LineRingBuffer _lineRing = getLineRing();
+                    final CountDownLatch closed = new CountDownLatch(1);
 
                     try
                     {
-                        ConnectionManager.this.telnetClient.connect(hostname, port);
-                        ConnectionManager.this.canDoDisconnect = true;
-
-                        btc.getBtnSend().setEnabled(true);
-                        btc.getTxtCommand().setEnabled(true);
-                        btc.getTxtCommand().requestFocusInWindow();
+                        ConnectionManager.this.closeCause = null;
+                        ConnectionManager.this.selectorLoop.start();
+                        ConnectionManager.this.archive = openArchive();
 
-                        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(telnetClient.getInputStream())))
+                        // The selector thread only frames lines and publishes them, the consumers do the rest
+                        final TelnetChannel _telnetChannel = new TelnetChannel(ConnectionManager.this.selectorLoop, ConnectionManager.this.charset, ConnectionManager.this.stats, new TelnetChannel.Listener()
                         {
-                            String line;
-                            while ((line = reader.readLine()) != null)
+                            @Override
+                            public void onConnected()
                             {
-                                String _loginName = null;
-                                if (ConnectionManager.this.loginName == null)
-                                {
-                                    _loginName = checkForLoginMessage(line);
-                                }
-                                if (_loginName != null)
-                                {
-                                    ConnectionManager.this.loginName = _loginName;
-                                    updateTitle(true);
-                                    sendDelayedCommand("telnet.enhanced", false, 100);
-                                }
-                                else
-                                {
-                                    final PlayerInfo selectedPlayer = btc.getSelectedPlayer();
-                                    String selectedPlayerName = null;
-                                    if (selectedPlayer != null)
-                                    {
-                                        selectedPlayerName = selectedPlayer.getName();
-                                    }
-
-                                    if (PlayerListDecoder.checkForPlayerListMessage(line, btc.getPlayerList()))
-                                    {
-                                        btc.updatePlayerList(selectedPlayerName);
-                                    }
-                                    else
-                                    {
-                                        final TelnetMessage message = new TelnetMessage(line);
-                                        if (!message.skip())
-                                        {
-                                            btc.writeToConsole(message);
-                                        }
-                                    }
-                                }
+                                ConnectionManager.this.canDoDisconnect = true;
+                                ConnectionManager.this.stats.connected(System.nanoTime() - ConnectionManager.this.connectStartNanos);
+
+                                stateChanged();
                             }
+
+                            @Override
+                            public void onLine(RawLine line)
+                            {
+                                _lineRing.publish(line);
+                            }
+
+                            @Override
+                            public void onClosed(IOException cause)
+                            {
+                                ConnectionManager.this.closeCause = cause;
+                                _lineRing.publishEndOfStream();
+                                closed.countDown();
+                            }
+
+                            @Override
+                            public boolean isReadPaused()
+                            {
+                                return _lineRing.isPaused();
+                            }
+                        });
+                        ConnectionManager.this.telnetChannel = _telnetChannel;
+                        _telnetChannel.setCapture(ConnectionManager.this.capture);
+
+                        final InetSocketAddress address = new InetSocketAddress(hostname, port);
+                        if (address.isUnresolved())
+                        {
+                            throw new UnknownHostException(hostname);
+                        }
+
+                        ConnectionManager.this.connectStartNanos = System.nanoTime();
+                        _telnetChannel.connect(address);
+                        ConnectionManager.this.scheduler.schedule(_telnetChannel::connectTimeout, CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+                        closed.await();
+                        _lineRing.awaitDrained();
+
+                        if (ConnectionManager.this.closeCause != null)
+                        {
+                            throw ConnectionManager.this.closeCause;
                         }
 
-                        triggerDisconnect();
+                        closeChannel();
                     }
                     catch (IOException ex)
                     {
-                        btc.writeToConsole(new ConsoleMessage(ex.getMessage() + SystemUtils.LINE_SEPARATOR + ExceptionUtils.getStackTrace(ex)));
+                        ConnectionManager.this.view.writeToConsole(new ConsoleMessage(ex.getMessage() + SystemUtils.LINE_SEPARATOR + ExceptionUtils.getStackTrace(ex)));
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
                     }
 
+                    closeArchive();
+                    ConnectionManager.this.canDoDisconnect = false;
+                    ConnectionManager.this.telnetChannel = null;
+                    final boolean reconnect = ConnectionManager.this.autoReconnect && !ConnectionManager.this.disconnectRequested;
+                    if (reconnect)
+                    {
+                        // Counts as active until the reconnect either fires or is cancelled
+                        ConnectionManager.this.reconnectPending = true;
+                    }
+                    ConnectionManager.this.connectThread = null;
+
                     finishDisconnect();
 
-                    ConnectionManager.this.connectThread = null;
-        });
+                    if (reconnect)
+                    {
+                        scheduleReconnect();
+                    }
+        }, "TelnetKek-Processor-" + this.hostname);
         this.connectThread.start();
     }
 
-    public static final String checkForLoginMessage(String message)
+    private void consoleEvent(final LineEvent event, final boolean endOfBatch)
     {
-        final Matcher matcher = LOGIN_MESSAGE.matcher(message);
-        if (matcher.find())
+        if (event.isEndOfStream())
         {
-            return matcher.group(1);
+            return;
         }
 
-        return null;
+        final List<PlayerInfo> players = event.getPlayerList();
+        if (players != null)
+        {
+            final long start = System.nanoTime();
+            this.view.updatePlayerList(players);
+            this.stats.dispatched(System.nanoTime() - start);
+            return;
+        }
+
+        // A copy of a recent line only counts up the original, unless the view no longer knows it
+        final TelnetMessage original = this.recentMessages.get(this.repeatFilter.originalOf(event.getSequence()));
+        if (original != null && this.view.repeatLine(original, event.getReceivedMillis()))
+        {
+            this.stats.repeated();
+            return;
+        }
+
+        final TelnetMessage prepared = this.parallelClassifier.take(event.getSequence());
+        if (prepared != null)
+        {
+            dispatchMessage(event, prepared, System.nanoTime());
+            return;
+        }
+
+        final RawLine line = event.getLine();
+        final long start = System.nanoTime();
+
+        String _loginName = null;
+        if (this.loginName == null && line.indexOf(LOGIN_MARKER, 0) >= 0)
+        {
+            _loginName = checkForLoginMessage(line.toString());
+        }
+        if (_loginName != null)
+        {
+            this.loginName = _loginName;
+            loginDetected();
+            stateChanged();
+            sendDelayedCommand("telnet.enhanced", false, 100, CommandScheduler.Lane.URGENT);
+        }
+        else if (event.isMarkedForConsole() || !PlayerListDecoder.isPlayerListMessage(line))
+        {
+            final TelnetMessage message = new TelnetMessage(line.toString(), event.getReceivedMillis());
+            final long classified = System.nanoTime();
+            this.stats.classified(classified - start);
+
+            dispatchMessage(event, message, classified);
+        }
     }
 
-    public final void updateTitle(final boolean isConnected)
+    // Runs on the classifier pool, anything that touches session state is left to the sequential path
+    private TelnetMessage prepareMessage(final LineEvent event)
     {
-        final MainPanel mainPanel = TelnetKek.mainPanel;
-        if (mainPanel == null)
+        final RawLine line = event.getLine();
+        if (event.isEndOfStream() || this.repeatFilter.originalOf(event.getSequence()) >= 0
+                || line.indexOf(LOGIN_MARKER, 0) >= 0 || PlayerListDecoder.isPlayerListMessage(line))
+        {
+            return null;
+        }
+
+        return new TelnetMessage(line.toString(), event.getReceivedMillis());
+    }
+
+    private void dispatchMessage(final LineEvent event, final TelnetMessage message, final long start)
+    {
+        // Filtering is left to the view, which may keep hidden lines around
+        this.view.writeToConsole(message);
+        this.recentMessages.put(event.getSequence(), message);
+        this.stats.dispatched(System.nanoTime() - start);
+    }
+
+    // Only live connections are archived, a replay already has its capture
+    private void archiveEvent(final LineEvent event, final boolean endOfBatch)
+    {
+        final LogArchive _archive = this.archive;
+        if (_archive == null)
         {
             return;
         }
 
-        String title;
+        if (!event.isEndOfStream())
+        {
+            final RawLine line = event.getLine();
+            _archive.append(event.getReceivedMillis(), ParsedLine.parseServerSeconds(line), line);
+        }
+        if (endOfBatch)
+        {
+            _archive.flushStale();
+        }
+    }
 
-        if (isConnected)
+    private LogArchive openArchive()
+    {
+        final ConsoleSettings settings = TelnetKek.config.getConsoleSettings();
+        if (!settings.isArchive())
         {
-            if (loginName == null)
-            {
-                title = String.format("TelnetKek - %s - %s:%d", TelnetKek.VERSION_STRING, hostname, port);
-            }
-            else
-            {
-                title = String.format("TelnetKek - %s - %s@%s:%d", TelnetKek.VERSION_STRING, loginName, hostname, port);
-            }
+            return null;
+        }
+
+        try
+        {
+            return new LogArchive(getArchiveDirectory(), settings.getArchiveRotateBytes());
+        }
+        catch (IOException ex)
+        {
+            TelnetKek.LOGGER.log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    // Every line has been consumed by the time the connect thread gets here
+    private void closeArchive()
+    {
+        final LogArchive _archive = this.archive;
+        this.archive = null;
+        if (_archive != null)
+        {
+            _archive.close();
+        }
+    }
+
+    private void playerListEvent(final LineEvent event, final boolean endOfBatch)
+    {
+        if (event.isEndOfStream() || !PlayerListDecoder.isPlayerListMessage(event.getLine()))
+        {
+            return;
+        }
+
+        final RawLine line = event.getLine();
+        final long start = System.nanoTime();
+
+        // Decoded into a fresh list, the view's own list is only ever touched by the view
+        final List<PlayerInfo> players = new ArrayList<>();
+        if (PlayerListDecoder.checkForPlayerListMessage(line, players))
+        {
+            this.stats.playerListReceived(line.length());
+            this.stats.classified(System.nanoTime() - start);
+
+            // The console consumer runs after this one and passes the list on
+            event.setPlayerList(players);
         }
         else
         {
-            title = String.format("TelnetKek - %s - Disconnected", TelnetKek.VERSION_STRING);
+            // The console consumer runs after this one and shows the raw line instead
+            event.markForConsole();
+        }
+    }
+
+    public static final String checkForLoginMessage(String message)
+    {
+        final Matcher matcher = LOGIN_MESSAGE.matcher(message);
+        if (matcher.find())
+        {
+            return matcher.group(1);
         }
 
-        mainPanel.setTitle(title);
+        return null;
+    }
+
+    private void stateChanged()
+    {
+        this.view.connectionStateChanged(this);
     }
 }
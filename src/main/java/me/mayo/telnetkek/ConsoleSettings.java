@@ -0,0 +1,120 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import me.mayo.telnetkek.config.ConfigEntry;
+import me.mayo.telnetkek.parameter.ParameterGetter;
+import me.mayo.telnetkek.parameter.ParameterSetter;
+import org.apache.commons.lang3.math.NumberUtils;
+
+public class ConsoleSettings extends ConfigEntry
+{
+
+    // Zero turns a limit off, bytes are counted as characters of the console document
+    private int scrollbackLines = 20000;
+    private int scrollbackBytes = 4 * 1024 * 1024;
+    // With the journal on, only the newest lines stay in memory and older ones are read back from disk
+    private boolean journal = true;
+    private int retainLines = 131072;
+    // Live sessions are also kept for good in compressed files that rotate daily or at this size
+    private boolean archive = true;
+    private int archiveRotateBytes = 64 * 1024 * 1024;
+
+    public ConsoleSettings()
+    {
+    }
+
+    @ParameterGetter(name = "scrollbackLines")
+    public int getScrollbackLines()
+    {
+        return scrollbackLines;
+    }
+
+    @ParameterSetter(name = "scrollbackLines")
+    public void setScrollbackLines(String scrollbackLines)
+    {
+        this.scrollbackLines = Math.max(0, NumberUtils.toInt(scrollbackLines, this.scrollbackLines));
+    }
+
+    @ParameterGetter(name = "scrollbackBytes")
+    public int getScrollbackBytes()
+    {
+        return scrollbackBytes;
+    }
+
+    @ParameterSetter(name = "scrollbackBytes")
+    public void setScrollbackBytes(String scrollbackBytes)
+    {
+        this.scrollbackBytes = Math.max(0, NumberUtils.toInt(scrollbackBytes, this.scrollbackBytes));
+    }
+
+    @ParameterGetter(name = "journal")
+    public boolean isJournal()
+    {
+        return journal;
+    }
+
+    @ParameterSetter(name = "journal")
+    public void setJournal(Boolean journal)
+    {
+        this.journal = journal;
+    }
+
+    @ParameterGetter(name = "retainLines")
+    public int getRetainLines()
+    {
+        return retainLines;
+    }
+
+    @ParameterSetter(name = "retainLines")
+    public void setRetainLines(String retainLines)
+    {
+        this.retainLines = Math.max(1, NumberUtils.toInt(retainLines, this.retainLines));
+    }
+
+    @ParameterGetter(name = "archive")
+    public boolean isArchive()
+    {
+        return archive;
+    }
+
+    @ParameterSetter(name = "archive")
+    public void setArchive(Boolean archive)
+    {
+        this.archive = archive;
+    }
+
+    @ParameterGetter(name = "archiveRotateBytes")
+    public int getArchiveRotateBytes()
+    {
+        return archiveRotateBytes;
+    }
+
+    @ParameterSetter(name = "archiveRotateBytes")
+    public void setArchiveRotateBytes(String archiveRotateBytes)
+    {
+        this.archiveRotateBytes = Math.max(1024 * 1024, NumberUtils.toInt(archiveRotateBytes, this.archiveRotateBytes));
+    }
+
+    @Override
+    public String getElementName()
+    {
+        return "console";
+    }
+}
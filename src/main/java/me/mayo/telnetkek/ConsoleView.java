@@ -0,0 +1,817 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.*;
+import me.mayo.telnetkek.store.LogStore;
+import me.mayo.telnetkek.store.SearchIndex;
+
+// Paints straight from the LogStore. Lines never wrap, so every row has the same cached height, finding the
+// rows of a scroll position is a division and only the rows inside the clip are ever decoded or drawn.
+public class ConsoleView extends JComponent implements Scrollable
+{
+
+    private static final int PADDING = 3;
+    private static final int PAGE_LINES = 500;
+
+    private final LogStore store;
+    // Store indices of the lines in the view in ascending order, live from first to first + count
+    private int[] lines = new int[1024];
+    private int first = 0;
+    private int count = 0;
+    private long bytes = 0;
+    private int maxWidth = 0;
+    private int lineHeight;
+    private int ascent;
+    // Selection ends are kept as store indices, so they stay put when the view is trimmed or refiltered
+    private int anchorLine = -1;
+    private int anchorChar = 0;
+    private int leadLine = -1;
+    private int leadChar = 0;
+    private SearchIndex.Query highlight;
+    private MessageFilter filter;
+    // Lines of the store below this one never made it into the view, scrolling to the top pages them in
+    private int pagedFrom = 0;
+    // Set while lines older than the scrollback are in the view, they stay until the view is back at the end
+    private boolean pagedBack = false;
+    // Only a move to the top pages back, not the view growing underneath a viewport that is already there
+    private int lastViewY = 0;
+    private boolean moving = false;
+    // First lines of the traces whose folded lines are shown
+    private final Set<Integer> expanded = new HashSet<>();
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+
+    public ConsoleView(final LogStore store)
+    {
+        this.store = store;
+
+        setOpaque(true);
+        setBackground(UIManager.getColor("TextPane.background"));
+        setFont(new Font("Lucida Sans Unicode", 0, 12)); // NOI18N
+        setFocusable(true);
+        setAutoscrolls(true);
+
+        final MouseAdapter mouseAdapter = new MouseAdapter()
+        {
+            @Override
+            public void mousePressed(final MouseEvent mouseEvent)
+            {
+                if (!SwingUtilities.isLeftMouseButton(mouseEvent))
+                {
+                    return;
+                }
+                requestFocusInWindow();
+                select(mouseEvent, !mouseEvent.isShiftDown());
+
+                if (mouseEvent.getClickCount() == 2 && ConsoleView.this.anchorLine >= 0)
+                {
+                    ConsoleView.this.anchorChar = 0;
+                    ConsoleView.this.leadChar = ConsoleView.this.store.getText(ConsoleView.this.leadLine).length();
+
+                    if (ConsoleView.this.store.isTrace(ConsoleView.this.leadLine))
+                    {
+                        toggleTrace(ConsoleView.this.leadLine);
+                    }
+                }
+            }
+
+            @Override
+            public void mouseDragged(final MouseEvent mouseEvent)
+            {
+                if (SwingUtilities.isLeftMouseButton(mouseEvent))
+                {
+                    select(mouseEvent, false);
+                    scrollRectToVisible(new Rectangle(mouseEvent.getX(), mouseEvent.getY(), 1, 1));
+                }
+            }
+        };
+        addMouseListener(mouseAdapter);
+        addMouseMotionListener(mouseAdapter);
+
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_C, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()), "copy");
+        getActionMap().put("copy", new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(final ActionEvent actionEvent)
+            {
+                copySelection();
+            }
+        });
+    }
+
+    @Override
+    public void setFont(final Font font)
+    {
+        super.setFont(font);
+
+        final FontMetrics metrics = getFontMetrics(font);
+        this.lineHeight = metrics.getHeight();
+        this.ascent = metrics.getAscent();
+        // Widths are measured again as lines are painted
+        this.maxWidth = 0;
+
+        revalidate();
+        repaint();
+    }
+
+    // Costs the same however many lines the view already holds
+    public void append(final MessageFilter filter, final int from, final int to)
+    {
+        final FontMetrics metrics = getFontMetrics(getFont());
+        final int oldCount = this.count;
+        this.filter = filter;
+
+        for (int i = from; i < to; i++)
+        {
+            if (isShown(filter, i))
+            {
+                add(i);
+                this.maxWidth = Math.max(this.maxWidth, metrics.stringWidth(this.store.getText(i)));
+            }
+        }
+
+        if (this.count != oldCount)
+        {
+            if (!this.pagedBack)
+            {
+                trimScrollback();
+            }
+            revalidate();
+            repaint();
+        }
+    }
+
+    // Only the newest lines that fit the scrollback are taken back in, older ones stay in the store
+    public void rebuild(final MessageFilter filter, final int end)
+    {
+        this.first = 0;
+        this.count = 0;
+        this.bytes = 0;
+        this.maxWidth = 0;
+        this.filter = filter;
+        this.pagedBack = false;
+        this.pagedFrom = scrollbackStart(filter, end);
+
+        for (int i = this.pagedFrom; i < end; i++)
+        {
+            if (isShown(filter, i))
+            {
+                add(i);
+            }
+        }
+
+        revalidate();
+        repaint();
+    }
+
+    public int getLineCount()
+    {
+        return this.count;
+    }
+
+    public void scrollToEnd()
+    {
+        // Lays the viewport out now instead of waiting for the next validation, so the end is really the end
+        final Container parent = getParent();
+        if (parent != null)
+        {
+            parent.validate();
+        }
+        scrollRectToVisible(new Rectangle(0, getHeight() - 1, 1, 1));
+    }
+
+    // Called whenever the viewport moves, the top brings in a page of older lines and the end lets the scrollback trim again
+    public void viewportMoved()
+    {
+        final Container parent = getParent();
+        if (!(parent instanceof JViewport) || this.filter == null)
+        {
+            return;
+        }
+
+        final JViewport viewport = (JViewport) parent;
+        final Point position = viewport.getViewPosition();
+        final boolean movedToTop = position.y == 0 && this.lastViewY > 0 && !this.moving;
+        this.lastViewY = position.y;
+        if (movedToTop && this.pagedFrom > 0)
+        {
+            pageBack(viewport, 0, PAGE_LINES);
+        }
+        else if (position.y + viewport.getExtentSize().height >= getHeight())
+        {
+            this.pagedBack = false;
+        }
+    }
+
+    // Selects a line at the top of the viewport, or the first shown line after it when it is filtered away,
+    // paging back as far as it takes
+    public void showLine(final int line)
+    {
+        final Container parent = getParent();
+        if (!(parent instanceof JViewport) || this.filter == null)
+        {
+            return;
+        }
+
+        final JViewport viewport = (JViewport) parent;
+        if (line < this.pagedFrom)
+        {
+            pageBack(viewport, line, Integer.MAX_VALUE);
+        }
+
+        final int row = rowOf(line);
+        if (row >= this.count)
+        {
+            return;
+        }
+
+        final int shown = this.lines[this.first + row];
+        this.anchorLine = shown;
+        this.anchorChar = 0;
+        this.leadLine = shown;
+        this.leadChar = this.store.getText(shown).length();
+
+        parent.validate();
+        this.moving = true;
+        scrollRectToVisible(new Rectangle(0, PADDING + row * this.lineHeight, 1, viewport.getExtentSize().height));
+        this.moving = false;
+        repaint();
+    }
+
+    public boolean hasSelection()
+    {
+        return this.anchorLine >= 0 && (this.anchorLine != this.leadLine || this.anchorChar != this.leadChar);
+    }
+
+    public String getSelectedText()
+    {
+        if (!hasSelection())
+        {
+            return null;
+        }
+
+        final boolean forward = isAnchorFirst();
+        final int startRow = rowOf(forward ? this.anchorLine : this.leadLine);
+        final int endRow = rowOf(forward ? this.leadLine : this.anchorLine);
+        final int startChar = forward ? this.anchorChar : this.leadChar;
+        final int endChar = forward ? this.leadChar : this.anchorChar;
+
+        final StringBuilder text = new StringBuilder();
+        for (int row = startRow; row <= endRow && row < this.count; row++)
+        {
+            final int line = this.lines[this.first + row];
+            final String lineText = this.store.getText(line);
+            final int from = line == (forward ? this.anchorLine : this.leadLine) ? Math.min(startChar, lineText.length()) : 0;
+            final int to = line == (forward ? this.leadLine : this.anchorLine) ? Math.min(endChar, lineText.length()) : lineText.length();
+
+            if (row != startRow)
+            {
+                text.append(System.lineSeparator());
+            }
+            text.append(lineText, from, Math.max(from, to));
+        }
+        return text.toString();
+    }
+
+    public void copySelection()
+    {
+        final String text = getSelectedText();
+        if (text != null)
+        {
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(text), null);
+        }
+    }
+
+    // Store indices of the lines in the view that contain the query, oldest first
+    public int[] find(final SearchIndex.Query query)
+    {
+        int[] found = new int[16];
+        int foundCount = 0;
+
+        for (int i = this.first; i < this.first + this.count; i++)
+        {
+            final int line = this.lines[i];
+            if (this.store.contains(line, query))
+            {
+                if (foundCount == found.length)
+                {
+                    found = Arrays.copyOf(found, foundCount * 2);
+                }
+                found[foundCount++] = line;
+            }
+        }
+
+        return Arrays.copyOf(found, foundCount);
+    }
+
+    // Every occurrence in the visible rows is marked while painting, null clears it
+    public void setHighlight(final SearchIndex.Query query)
+    {
+        this.highlight = query == null || query.getText().isEmpty() ? null : query;
+        repaint();
+    }
+
+    // Selects the first occurrence of the query in a line and scrolls it to the middle of the view
+    public void selectMatch(final int line, final SearchIndex.Query query)
+    {
+        final int row = rowOf(line);
+        if (row >= this.count || this.lines[this.first + row] != line)
+        {
+            return;
+        }
+
+        final String text = this.store.getText(line);
+        final int start = Math.max(0, query.indexIn(text, 0));
+        final int end = Math.min(text.length(), start + query.getText().length());
+        this.anchorLine = line;
+        this.anchorChar = start;
+        this.leadLine = line;
+        this.leadChar = end;
+
+        final Container parent = getParent();
+        if (parent != null)
+        {
+            parent.validate();
+        }
+
+        final FontMetrics metrics = getFontMetrics(getFont());
+        final Rectangle visible = getVisibleRect();
+        final int x = PADDING + metrics.stringWidth(text.substring(0, start));
+        final int y = PADDING + row * this.lineHeight;
+        scrollRectToVisible(new Rectangle(x, Math.max(0, y - (visible.height - this.lineHeight) / 2),
+                metrics.stringWidth(text.substring(start, end)), visible.height));
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        if (isPreferredSizeSet())
+        {
+            return super.getPreferredSize();
+        }
+        return new Dimension(this.maxWidth + PADDING * 2, this.count * this.lineHeight + PADDING * 2);
+    }
+
+    @Override
+    protected void paintComponent(final Graphics graphics)
+    {
+        final Graphics2D g = (Graphics2D) graphics.create();
+        try
+        {
+            final Map<?, ?> hints = (Map<?, ?>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+            if (hints != null)
+            {
+                g.addRenderingHints(hints);
+            }
+
+            Rectangle clip = g.getClipBounds();
+            if (clip == null)
+            {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+            if (this.count == 0)
+            {
+                return;
+            }
+
+            g.setFont(getFont());
+            final FontMetrics metrics = g.getFontMetrics();
+            final int firstRow = Math.max(0, (clip.y - PADDING) / this.lineHeight);
+            final int lastRow = Math.min(this.count - 1, (clip.y + clip.height - PADDING) / this.lineHeight);
+
+            final boolean selected = hasSelection();
+            final boolean forward = isAnchorFirst();
+            final int selectionStartRow = selected ? rowOf(forward ? this.anchorLine : this.leadLine) : -1;
+            final int selectionEndRow = selected ? rowOf(forward ? this.leadLine : this.anchorLine) : -1;
+            final Color selectionColor = UIManager.getColor("TextPane.selectionBackground");
+            final SearchIndex.Query _highlight = this.highlight;
+
+            boolean widened = false;
+            for (int row = firstRow; row <= lastRow; row++)
+            {
+                final int line = this.lines[this.first + row];
+                final String text = this.store.getText(line);
+                final int y = PADDING + row * this.lineHeight;
+
+                final int width = metrics.stringWidth(text);
+                final String suffix = suffixOf(line);
+                final int fullWidth = suffix == null ? width : width + metrics.stringWidth(suffix);
+                if (fullWidth > this.maxWidth)
+                {
+                    this.maxWidth = fullWidth;
+                    widened = true;
+                }
+
+                if (_highlight != null && this.store.getSearchIndex().mayContain(line, _highlight))
+                {
+                    g.setColor(Color.YELLOW);
+                    for (int at = _highlight.indexIn(text, 0); at >= 0; at = _highlight.indexIn(text, at + _highlight.getText().length()))
+                    {
+                        final int startX = metrics.stringWidth(text.substring(0, at));
+                        final int endX = metrics.stringWidth(text.substring(0, Math.min(text.length(), at + _highlight.getText().length())));
+                        g.fillRect(PADDING + startX, y, endX - startX, this.lineHeight);
+                    }
+                }
+
+                if (selected && row >= selectionStartRow && row <= selectionEndRow)
+                {
+                    final int startX = line == (forward ? this.anchorLine : this.leadLine)
+                            ? metrics.stringWidth(text.substring(0, Math.min(forward ? this.anchorChar : this.leadChar, text.length()))) : 0;
+                    final int endX = line == (forward ? this.leadLine : this.anchorLine)
+                            ? metrics.stringWidth(text.substring(0, Math.min(forward ? this.leadChar : this.anchorChar, text.length()))) : width + metrics.charWidth(' ');
+                    g.setColor(selectionColor);
+                    g.fillRect(PADDING + startX, y, Math.max(0, endX - startX), this.lineHeight);
+                }
+
+                g.setColor(this.store.getColor(line));
+                g.drawString(text, PADDING, y + this.ascent);
+
+                if (suffix != null)
+                {
+                    g.setColor(Color.GRAY);
+                    g.drawString(suffix, PADDING + width, y + this.ascent);
+                }
+            }
+
+            if (widened)
+            {
+                revalidate();
+            }
+        }
+        finally
+        {
+            g.dispose();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize()
+    {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(final Rectangle visibleRect, final int orientation, final int direction)
+    {
+        return this.lineHeight;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(final Rectangle visibleRect, final int orientation, final int direction)
+    {
+        if (orientation == SwingConstants.VERTICAL)
+        {
+            return Math.max(this.lineHeight, visibleRect.height - this.lineHeight);
+        }
+        return visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth()
+    {
+        return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight()
+    {
+        return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+    }
+
+    private void add(final int line)
+    {
+        if (this.first + this.count == this.lines.length)
+        {
+            // Trimming leaves room at the front, which is reused before the array ever grows
+            if (this.count < this.lines.length / 2)
+            {
+                System.arraycopy(this.lines, this.first, this.lines, 0, this.count);
+            }
+            else
+            {
+                this.lines = Arrays.copyOfRange(this.lines, this.first, this.first + this.count * 2);
+            }
+            this.first = 0;
+        }
+
+        this.lines[this.first + this.count] = line;
+        this.count++;
+        this.bytes += lineBytes(line);
+    }
+
+    // Drops whole lines off the top once a limit is passed, down to three quarters of it so trims stay rare
+    private void trimScrollback()
+    {
+        final ConsoleSettings settings = TelnetKek.config.getConsoleSettings();
+
+        int remove = 0;
+        if (settings.getScrollbackLines() > 0 && this.count > settings.getScrollbackLines())
+        {
+            remove = this.count - settings.getScrollbackLines() / 4 * 3;
+        }
+        if (settings.getScrollbackBytes() > 0 && this.bytes > settings.getScrollbackBytes())
+        {
+            final long excess = this.bytes - settings.getScrollbackBytes() / 4 * 3;
+            long removed = 0;
+            int lineCount = 0;
+            while (removed < excess && lineCount < this.count)
+            {
+                removed += lineBytes(this.lines[this.first + lineCount]);
+                lineCount++;
+            }
+            remove = Math.max(remove, lineCount);
+        }
+        if (remove == 0)
+        {
+            return;
+        }
+
+        for (int i = 0; i < remove; i++)
+        {
+            this.bytes -= lineBytes(this.lines[this.first + i]);
+        }
+        this.first += remove;
+        this.count -= remove;
+
+        if (this.count > 0)
+        {
+            this.pagedFrom = this.lines[this.first];
+            this.expanded.removeIf(trace -> trace < this.pagedFrom);
+            this.store.getSearchIndex().releaseBefore(this.lines[this.first]);
+        }
+
+        if (this.anchorLine >= 0 && (this.count == 0 || Math.max(this.anchorLine, this.leadLine) < this.lines[this.first]))
+        {
+            this.anchorLine = -1;
+            this.leadLine = -1;
+        }
+
+        // The rows below the cut move up, the viewport follows them so the visible lines stay where they were
+        final Container parent = getParent();
+        if (parent instanceof JViewport)
+        {
+            final JViewport viewport = (JViewport) parent;
+            final Point position = viewport.getViewPosition();
+            this.moving = true;
+            viewport.setViewPosition(new Point(position.x, Math.max(0, position.y - remove * this.lineHeight)));
+            this.moving = false;
+        }
+    }
+
+    // Older lines, down to the given one, come from the store or the journal behind it and go in above the first row
+    // without moving what is on screen
+    private void pageBack(final JViewport viewport, final int downTo, final int maxLines)
+    {
+        final FontMetrics metrics = getFontMetrics(getFont());
+        int[] page = new int[Math.min(maxLines, PAGE_LINES)];
+        int found = 0;
+        int line = this.pagedFrom - 1;
+        for (; line >= downTo && found < maxLines; line--)
+        {
+            if (isShown(this.filter, line))
+            {
+                if (found == page.length)
+                {
+                    page = Arrays.copyOf(page, found * 2);
+                }
+                page[found++] = line;
+            }
+        }
+        this.pagedFrom = line + 1;
+        if (found == 0)
+        {
+            return;
+        }
+
+        if (this.first < found)
+        {
+            final int[] grown = new int[found + this.count + Math.max(this.lines.length - this.first - this.count, PAGE_LINES)];
+            System.arraycopy(this.lines, this.first, grown, found, this.count);
+            this.lines = grown;
+            this.first = found;
+        }
+        for (int i = 0; i < found; i++)
+        {
+            this.first--;
+            this.lines[this.first] = page[i];
+            this.bytes += lineBytes(page[i]);
+            this.maxWidth = Math.max(this.maxWidth, metrics.stringWidth(this.store.getText(page[i])));
+        }
+        this.count += found;
+        this.pagedBack = true;
+
+        revalidate();
+        viewport.validate();
+        final Point position = viewport.getViewPosition();
+        viewport.setViewPosition(new Point(position.x, found * this.lineHeight));
+        repaint();
+    }
+
+    private int scrollbackStart(final MessageFilter filter, final int end)
+    {
+        final ConsoleSettings settings = TelnetKek.config.getConsoleSettings();
+        int lineCount = 0;
+        long byteCount = 0;
+
+        for (int i = end - 1; i >= 0; i--)
+        {
+            if (!isShown(filter, i))
+            {
+                continue;
+            }
+
+            lineCount++;
+            byteCount += lineBytes(i);
+            if ((settings.getScrollbackLines() > 0 && lineCount > settings.getScrollbackLines())
+                    || (settings.getScrollbackBytes() > 0 && byteCount > settings.getScrollbackBytes()))
+            {
+                return i + 1;
+            }
+        }
+
+        return 0;
+    }
+
+    // Folded trace lines only show while the trace they belong to is expanded
+    private boolean isShown(final MessageFilter filter, final int line)
+    {
+        return !filter.isHidden(this.store, line)
+                && (!this.store.isFolded(line) || (!this.expanded.isEmpty() && this.expanded.contains(traceOf(line))));
+    }
+
+    private int traceOf(final int line)
+    {
+        int trace = line;
+        while (trace > 0 && this.store.isFolded(trace))
+        {
+            trace--;
+        }
+        return trace;
+    }
+
+    // The folded lines go in right below the first line of the trace, or come out again. Lines the view
+    // has not taken in yet are left to append, which sees the trace expanded
+    private void toggleTrace(final int trace)
+    {
+        final int row = rowOf(trace);
+        if (this.filter == null || row >= this.count || this.lines[this.first + row] != trace)
+        {
+            return;
+        }
+
+        final int at = this.first + row + 1;
+        if (this.expanded.remove(trace))
+        {
+            int folded = 0;
+            while (at + folded < this.first + this.count && this.store.isFolded(this.lines[at + folded]))
+            {
+                this.bytes -= lineBytes(this.lines[at + folded]);
+                folded++;
+            }
+            System.arraycopy(this.lines, at + folded, this.lines, at, this.first + this.count - at - folded);
+            this.count -= folded;
+        }
+        else
+        {
+            this.expanded.add(trace);
+
+            final int last = this.lines[this.first + this.count - 1];
+            int[] folded = new int[16];
+            int foldedCount = 0;
+            for (int line = trace + 1; line <= last && this.store.isFolded(line); line++)
+            {
+                if (!this.filter.isHidden(this.store, line))
+                {
+                    if (foldedCount == folded.length)
+                    {
+                        folded = Arrays.copyOf(folded, foldedCount * 2);
+                    }
+                    folded[foldedCount++] = line;
+                    this.bytes += lineBytes(line);
+                }
+            }
+
+            if (this.first + this.count + foldedCount > this.lines.length)
+            {
+                this.lines = Arrays.copyOf(this.lines, (this.first + this.count + foldedCount) * 2);
+            }
+            System.arraycopy(this.lines, at, this.lines, at + foldedCount, this.first + this.count - at);
+            System.arraycopy(folded, 0, this.lines, at, foldedCount);
+            this.count += foldedCount;
+        }
+
+        revalidate();
+        repaint();
+    }
+
+    // Grey text painted after a line, the folded line count of a collapsed trace and the arrivals of a repeated line
+    private String suffixOf(final int line)
+    {
+        String suffix = null;
+        if (this.store.isTrace(line) && !this.expanded.contains(line))
+        {
+            int folded = 0;
+            final int size = this.store.size();
+            for (int i = line + 1; i < size && this.store.isFolded(i); i++)
+            {
+                folded++;
+            }
+            suffix = "  [+" + folded + " lines]";
+        }
+
+        final LogStore.Repeat repeat = this.store.getRepeat(line);
+        if (repeat != null)
+        {
+            suffix = (suffix == null ? "" : suffix) + "  \u00d7" + repeat.getCount()
+                    + ", first " + this.timeFormat.format(new Date(this.store.getReceivedMillis(line)))
+                    + ", last " + this.timeFormat.format(new Date(repeat.getLastMillis()));
+        }
+        return suffix;
+    }
+
+    private long lineBytes(final int line)
+    {
+        return this.store.getTextLength(line) + 1;
+    }
+
+    // The row of a line, or of the next line in the view when it has been trimmed or filtered away
+    private int rowOf(final int line)
+    {
+        final int found = Arrays.binarySearch(this.lines, this.first, this.first + this.count, line);
+        return (found >= 0 ? found : -found - 1) - this.first;
+    }
+
+    private boolean isAnchorFirst()
+    {
+        return this.anchorLine < this.leadLine || (this.anchorLine == this.leadLine && this.anchorChar <= this.leadChar);
+    }
+
+    private void select(final MouseEvent mouseEvent, final boolean newAnchor)
+    {
+        if (this.count == 0)
+        {
+            return;
+        }
+
+        final int row = Math.max(0, Math.min(this.count - 1, (mouseEvent.getY() - PADDING) / this.lineHeight));
+        final int line = this.lines[this.first + row];
+
+        this.leadLine = line;
+        this.leadChar = charAt(this.store.getText(line), mouseEvent.getX() - PADDING);
+        if (newAnchor || this.anchorLine < 0)
+        {
+            this.anchorLine = this.leadLine;
+            this.anchorChar = this.leadChar;
+        }
+
+        repaint();
+    }
+
+    private int charAt(final String text, final int x)
+    {
+        final FontMetrics metrics = getFontMetrics(getFont());
+        int width = 0;
+        for (int i = 0; i < text.length(); i++)
+        {
+            final int charWidth = metrics.charWidth(text.charAt(i));
+            if (x < width + charWidth / 2)
+            {
+                return i;
+            }
+            width += charWidth;
+        }
+        return text.length();
+    }
+}
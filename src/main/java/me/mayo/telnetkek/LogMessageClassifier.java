@@ -0,0 +1,276 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.util.Arrays;
+import me.mayo.telnetkek.TelnetMessage.LogMessageType;
+
+// Matches the shared log header once, then walks two tries over the remainder instead of running every pattern
+final class LogMessageClassifier
+{
+
+    private static final String HEADER_START = ":[";
+    private static final String HEADER_END = " INFO]: ";
+    private static final String GAP = ".+?";
+    private static final char ANY = '\uFFFF';
+
+    private final LogMessageType[] types;
+    // Rules that are a plain literal after the header, keyed by that literal
+    private final Node prefixTrie = new Node();
+    // Rules of the form prefix .+? literal, keyed by the literal after the gap
+    private final Node gapTrie = new Node();
+    private final int firstGapRule;
+
+    LogMessageClassifier(final LogMessageType[] types, final String headerPattern)
+    {
+        this.types = types;
+
+        int _firstGapRule = Integer.MAX_VALUE;
+        for (int i = 0; i < types.length; i++)
+        {
+            final String source = types[i].getMessagePattern().pattern();
+            if (!source.startsWith(headerPattern))
+            {
+                throw new IllegalArgumentException("Pattern doesn't start with the log header: " + source);
+            }
+
+            final String rest = source.substring(headerPattern.length());
+            final int gap = rest.indexOf(GAP);
+            if (gap < 0)
+            {
+                this.prefixTrie.insert(unescape(rest), 0, new Rule(i, null));
+            }
+            else
+            {
+                if (rest.indexOf(GAP, gap + GAP.length()) >= 0)
+                {
+                    throw new IllegalArgumentException("Only one gap per pattern is supported: " + source);
+                }
+                this.gapTrie.insert(unescape(rest.substring(gap + GAP.length())), 0, new Rule(i, unescape(rest.substring(0, gap))));
+                _firstGapRule = Math.min(_firstGapRule, i);
+            }
+        }
+        this.firstGapRule = _firstGapRule;
+    }
+
+    // Same result as trying every pattern in declaration order with find()
+    LogMessageType classify(final String message)
+    {
+        if (!message.startsWith(HEADER_START))
+        {
+            return null;
+        }
+
+        // '.' never matches a line terminator, so nothing past the first one can take part in a match
+        return classify(message, findLineTerminator(message), message.indexOf(HEADER_END, HEADER_START.length() + 1));
+    }
+
+    // For callers that already know the line terminator and the first valid " INFO]: " header, or -1
+    LogMessageType classify(final String message, final int limit, int header)
+    {
+        // The lazy header group can stretch over earlier headers, so every occurrence is a candidate
+        int best = Integer.MAX_VALUE;
+        while (header >= 0 && header + HEADER_END.length() <= limit && best > 0)
+        {
+            best = Math.min(best, classifyBody(message, header + HEADER_END.length(), limit, best));
+            header = message.indexOf(HEADER_END, header + 1);
+        }
+
+        return best == Integer.MAX_VALUE ? null : this.types[best];
+    }
+
+    private int classifyBody(final String message, final int body, final int limit, int best)
+    {
+        Node node = this.prefixTrie;
+        for (int i = body; node != null; i++)
+        {
+            if (node.rule != null)
+            {
+                best = Math.min(best, node.rule.index);
+            }
+            node = i < limit ? node.child(message.charAt(i)) : null;
+        }
+
+        if (best <= this.firstGapRule)
+        {
+            return best;
+        }
+
+        for (int start = body + 1; start < limit && best > this.firstGapRule; start++)
+        {
+            best = matchGap(this.gapTrie, message, body, start, start, limit, best);
+        }
+
+        return best;
+    }
+
+    private static int matchGap(final Node node, final String message, final int body, final int start, final int position, final int limit, int best)
+    {
+        if (node.rules != null)
+        {
+            for (final Rule rule : node.rules)
+            {
+                if (rule.index < best && start >= body + rule.prefix.length() + 1 && message.startsWith(rule.prefix, body))
+                {
+                    best = rule.index;
+                }
+            }
+        }
+
+        if (position >= limit)
+        {
+            return best;
+        }
+
+        final Node next = node.child(message.charAt(position));
+        if (next != null)
+        {
+            best = matchGap(next, message, body, start, position + 1, limit, best);
+        }
+
+        if (node.any != null)
+        {
+            // Like the regex, a surrogate pair counts as one character
+            final int width = Character.isHighSurrogate(message.charAt(position)) && position + 1 < limit
+                    && Character.isLowSurrogate(message.charAt(position + 1)) ? 2 : 1;
+            best = matchGap(node.any, message, body, start, position + width, limit, best);
+        }
+
+        return best;
+    }
+
+    static int findLineTerminator(final String message)
+    {
+        for (int i = 0; i < message.length(); i++)
+        {
+            final char c = message.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+            {
+                return i;
+            }
+        }
+        return message.length();
+    }
+
+    private static String unescape(final String source)
+    {
+        final StringBuilder literal = new StringBuilder(source.length());
+        for (int i = 0; i < source.length(); i++)
+        {
+            final char c = source.charAt(i);
+            if (c == '\\' && i + 1 < source.length())
+            {
+                literal.append(source.charAt(++i));
+            }
+            else if (c == '.')
+            {
+                literal.append(ANY);
+            }
+            else if ("^$()[]{}|*+?".indexOf(c) >= 0)
+            {
+                throw new IllegalArgumentException("Unsupported pattern syntax: " + source);
+            }
+            else
+            {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    private static final class Rule
+    {
+
+        private final int index;
+        private final String prefix;
+
+        private Rule(final int index, final String prefix)
+        {
+            this.index = index;
+            this.prefix = prefix;
+        }
+    }
+
+    private static final class Node
+    {
+
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private Node any;
+        // Prefix trie terminals keep the first rule only, gap terminals keep them all since their prefixes differ
+        private Rule rule;
+        private Rule[] rules;
+
+        private Node child(final char c)
+        {
+            for (int i = 0; i < this.keys.length; i++)
+            {
+                if (this.keys[i] == c)
+                {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+
+        private void insert(final String literal, final int position, final Rule newRule)
+        {
+            if (position == literal.length())
+            {
+                if (newRule.prefix == null)
+                {
+                    if (this.rule == null)
+                    {
+                        this.rule = newRule;
+                    }
+                }
+                else
+                {
+                    this.rules = this.rules == null ? new Rule[1] : Arrays.copyOf(this.rules, this.rules.length + 1);
+                    this.rules[this.rules.length - 1] = newRule;
+                }
+                return;
+            }
+
+            final char c = literal.charAt(position);
+            Node next;
+            if (c == ANY)
+            {
+                if (this.any == null)
+                {
+                    this.any = new Node();
+                }
+                next = this.any;
+            }
+            else
+            {
+                next = child(c);
+                if (next == null)
+                {
+                    next = new Node();
+                    this.keys = Arrays.copyOf(this.keys, this.keys.length + 1);
+                    this.children = Arrays.copyOf(this.children, this.children.length + 1);
+                    this.keys[this.keys.length - 1] = c;
+                    this.children[this.children.length - 1] = next;
+                }
+            }
+            next.insert(literal, position + 1, newRule);
+        }
+    }
+}
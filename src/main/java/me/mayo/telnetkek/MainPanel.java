@@ -19,27 +19,39 @@
 package me.mayo.telnetkek;
 
 import me.mayo.telnetkek.button.FavoriteButtonEntry;
+import me.mayo.telnetkek.net.CommandScheduler;
 import me.mayo.telnetkek.player.PlayerCommandEntry;
 import me.mayo.telnetkek.player.PlayerInfo;
+import me.mayo.telnetkek.store.LogArchive;
+import me.mayo.telnetkek.store.LogStore;
 import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.List;
-import java.util.Queue;
 import javax.swing.*;
-import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
-import javax.swing.text.*;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
 
 public class MainPanel extends javax.swing.JFrame
 {
 
-    private final ConnectionManager connectionManager = new ConnectionManager();
-    private final List<PlayerInfo> playerList = new ArrayList<>();
-    private final PlayerListTableModel playerListTableModel = new PlayerListTableModel(playerList);
+    private static final long ARCHIVE_WINDOW_MILLIS = 5 * 60 * 1000;
+    private static final DateTimeFormatter SERVER_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm[:ss]");
+    private final JTabbedPane sessionTabs = new JTabbedPane();
+    private Color playerTableForeground;
     private final Collection<FavoriteButtonEntry> favButtonList = TelnetKek.config.getFavoriteButtons();
 
     public MainPanel()
@@ -70,119 +82,409 @@ public class MainPanel extends javax.swing.JFrame
         }
 
         setupTablePopup();
-
-        this.getConnectionManager().updateTitle(false);
-
-        this.tblPlayers.setModel(playerListTableModel);
-
-        this.tblPlayers.getRowSorter().toggleSortOrder(0);
+        setupSessionTabs();
+        setupMessageFilter();
 
         this.setLocationRelativeTo(null);
         this.setVisible(true);
     }
 
-    private final Queue<TelnetMessage> telnetErrorQueue = new LinkedList<>();
-    private boolean isQueueing = false;
-
-    private void flushTelnetErrorQueue()
+    private void setupMessageFilter()
     {
-        TelnetMessage queuedMessage;
-        while ((queuedMessage = telnetErrorQueue.poll()) != null)
+        // Item events also fire for programmatic changes, so the published filter can never go stale
+        for (final JCheckBox checkBox : new JCheckBox[]
+        {
+            this.chkShowChatOnly, this.chkIgnoreServerCommands, this.chkIgnorePlayerCommands, this.chkIgnoreErrors
+        })
         {
-            queuedMessage.setColor(Color.GRAY);
-            writeToConsoleImmediately(queuedMessage, true);
+            checkBox.addItemListener(event -> publishMessageFilter());
         }
+        publishMessageFilter();
     }
 
-    public void writeToConsole(final ConsoleMessage message)
+    private void publishMessageFilter()
     {
-        if (message.getMessage().isEmpty())
+        MessageFilter.publish(new MessageFilter(
+                this.chkShowChatOnly.isSelected(),
+                this.chkIgnoreServerCommands.isSelected(),
+                this.chkIgnorePlayerCommands.isSelected(),
+                this.chkIgnoreErrors.isSelected(),
+                TelnetKek.config.getHighlighter()));
+
+        for (int i = 0; i < this.sessionTabs.getTabCount(); i++)
         {
-            return;
+            getSession(i).refilter();
         }
+    }
 
-        if (message instanceof TelnetMessage)
-        {
-            final TelnetMessage telnetMessage = (TelnetMessage) message;
+    private void setupSessionTabs()
+    {
+        this.playerTableForeground = this.tblPlayers.getForeground();
+        this.sessionTabs.setBackground(new Color(68, 68, 68));
+        ((GroupLayout) this.jPanel3.getLayout()).replace(this.mainOutputScoll, this.sessionTabs);
 
-            if (telnetMessage.isInfoMessage())
-            {
-                isQueueing = false;
-                flushTelnetErrorQueue();
-            }
-            else if (telnetMessage.isErrorMessage() || isQueueing)
+        addSession(new SessionTab(this.mainOutputScoll));
+
+        this.sessionTabs.addChangeListener(event -> sessionSelected());
+
+        this.sessionTabs.addMouseListener(new MouseAdapter()
+        {
+            @Override
+            public void mouseReleased(final MouseEvent mouseEvent)
             {
-                isQueueing = true;
-                telnetErrorQueue.add(telnetMessage);
+                final int index = sessionTabs.indexAtLocation(mouseEvent.getX(), mouseEvent.getY());
+                if (index < 0 || !SwingUtilities.isRightMouseButton(mouseEvent))
+                {
+                    return;
+                }
+
+                final ConnectionManager connection = getSession(index).getConnectionManager();
+                final JPopupMenu popup = new JPopupMenu();
+
+                final JCheckBoxMenuItem autoReconnect = new JCheckBoxMenuItem("Auto reconnect", connection.isAutoReconnect());
+                autoReconnect.addActionListener(actionEvent -> connection.setAutoReconnect(autoReconnect.isSelected()));
+                popup.add(autoReconnect);
+
+                final JMenuItem statistics = new JMenuItem("Show statistics");
+                statistics.addActionListener(actionEvent
+                        -> 
+                        {
+                            final StringBuilder text = new StringBuilder(connection.getStatsSnapshot().toString());
+                            connection.getLineConsumers().forEach((consumer)
+                                    -> 
+                                    {
+                                        text.append(SystemUtils.LINE_SEPARATOR).append(consumer);
+                            });
+                            final LogStore store = getSession(index).getStore();
+                            text.append(SystemUtils.LINE_SEPARATOR).append(store);
+                            if (store.getJournal() != null)
+                            {
+                                text.append(SystemUtils.LINE_SEPARATOR).append(store.getJournal());
+                            }
+                            TelnetKek.config.getHighlighter().getRules().forEach((rule)
+                                    -> 
+                                    {
+                                        text.append(SystemUtils.LINE_SEPARATOR).append(rule);
+                            });
+                            getSession(index).writeToConsole(new ConsoleMessage(text.toString()));
+                });
+                popup.add(statistics);
+
+                popup.addSeparator();
+
+                final JCheckBoxMenuItem record = new JCheckBoxMenuItem("Record session", connection.isCapturing());
+                record.addActionListener(actionEvent -> toggleCapture(connection, getSession(index)));
+                popup.add(record);
+
+                final JMenuItem replay = new JMenuItem("Replay capture...");
+                replay.setEnabled(!connection.isActive());
+                replay.addActionListener(actionEvent -> triggerReplay(connection));
+                popup.add(replay);
+
+                final JMenuItem goToTime = new JMenuItem("Go to server time...");
+                goToTime.addActionListener(actionEvent -> goToServerTime(getSession(index)));
+                popup.add(goToTime);
+
+                final JMenuItem timeRange = new JMenuItem("Show lines between...");
+                timeRange.addActionListener(actionEvent -> showServerTimeRange(getSession(index)));
+                popup.add(timeRange);
+
+                final JMenuItem archive = new JMenuItem("Show archive around...");
+                archive.setEnabled(connection.getArchiveDirectory() != null);
+                archive.addActionListener(actionEvent -> showArchive(connection));
+                popup.add(archive);
+
+                if (sessionTabs.getTabCount() > 1)
+                {
+                    final JMenuItem close = new JMenuItem("Close " + sessionTabs.getTitleAt(index));
+                    close.addActionListener(actionEvent -> closeSession(index));
+                    popup.add(close);
+                }
+
+                popup.show(sessionTabs, mouseEvent.getX(), mouseEvent.getY());
             }
+        });
 
-            if (!isQueueing)
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()), "find");
+        getRootPane().getActionMap().put("find", new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(final ActionEvent actionEvent)
             {
-                writeToConsoleImmediately(telnetMessage, false);
+                getSelectedSession().showSearch();
             }
-        }
-        else
+        });
+
+        sessionSelected();
+    }
+
+    private SessionTab addSession(final SessionTab session)
+    {
+        session.setConnectionManager(TelnetKek.sessionManager.createSession(session));
+        session.getComponent().putClientProperty(SessionTab.class, session);
+        this.sessionTabs.addTab("Disconnected", session.getComponent());
+        return session;
+    }
+
+    private void closeSession(final int index)
+    {
+        final SessionTab session = getSession(index);
+        TelnetKek.sessionManager.closeSession(session.getConnectionManager());
+        session.close();
+        this.sessionTabs.removeTabAt(index);
+    }
+
+    private SessionTab getSession(final int index)
+    {
+        return (SessionTab) ((JComponent) this.sessionTabs.getComponentAt(index)).getClientProperty(SessionTab.class);
+    }
+
+    public SessionTab getSelectedSession()
+    {
+        final int index = this.sessionTabs.getSelectedIndex();
+        return index < 0 ? null : getSession(index);
+    }
+
+    private void sessionSelected()
+    {
+        final SessionTab session = getSelectedSession();
+        if (session == null)
         {
-            isQueueing = false;
-            flushTelnetErrorQueue();
-            writeToConsoleImmediately(message, false);
+            return;
         }
+
+        this.tblPlayers.setModel(session.getPlayerListTableModel());
+        this.tblPlayers.getRowSorter().toggleSortOrder(0);
+        playerListChanged(null);
+
+        updateControls(session.getConnectionManager());
     }
 
-    private void writeToConsoleImmediately(final ConsoleMessage message, final boolean isTelnetError)
+    public void updateControls(final ConnectionManager connection)
     {
-        SwingUtilities.invokeLater(()
+        EventQueue.invokeLater(()
                 -> 
                 {
-                    if (isTelnetError && chkIgnoreErrors.isSelected())
+                    if (connection != getConnectionManager())
                     {
                         return;
                     }
 
-                    final StyledDocument styledDocument = mainOutput.getStyledDocument();
+                    updateTitle(connection);
 
-                    int startLength = styledDocument.getLength();
+                    btnDisconnect.setEnabled(connection.isActive());
 
-                    try
+                    final boolean wasConnected = txtCommand.isEnabled();
+                    btnSend.setEnabled(connection.isConnected());
+                    txtCommand.setEnabled(connection.isConnected());
+                    if (!wasConnected && connection.isConnected())
                     {
-                        styledDocument.insertString(
-                                styledDocument.getLength(),
-                                message.getMessage() + System.lineSeparator(),
-                                StyleContext.getDefaultStyleContext().addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, message.getColor())
-                        );
+                        txtCommand.requestFocusInWindow();
                     }
-                    catch (BadLocationException ex)
+        });
+    }
+
+    private void toggleCapture(final ConnectionManager connection, final SessionTab session)
+    {
+        if (connection.isCapturing())
+        {
+            connection.stopCapture();
+            return;
+        }
+
+        final JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+        {
+            return;
+        }
+
+        try
+        {
+            connection.startCapture(chooser.getSelectedFile());
+        }
+        catch (IOException ex)
+        {
+            session.writeToConsole(new ConsoleMessage("Can't record to " + chooser.getSelectedFile() + ": " + ex.getMessage()));
+        }
+    }
+
+    private void triggerReplay(final ConnectionManager connection)
+    {
+        final JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+        {
+            return;
+        }
+
+        final String speed = JOptionPane.showInputDialog(this, "Replay speed (1 = real time, 0 = as fast as possible):", "0");
+        if (speed == null)
+        {
+            return;
+        }
+
+        try
+        {
+            connection.triggerReplay(chooser.getSelectedFile(), Double.parseDouble(speed.trim()));
+        }
+        catch (NumberFormatException ex)
+        {
+        }
+    }
+
+    private void goToServerTime(final SessionTab session)
+    {
+        final String time = JOptionPane.showInputDialog(this, "Go to server time (HH:mm, HH:mm:ss or yyyy-MM-dd HH:mm):");
+        if (time == null)
+        {
+            return;
+        }
+
+        final long serverMillis = parseServerTime(time, session.getStore());
+        if (serverMillis >= 0)
+        {
+            session.getOutput().showLine(session.getStore().findServerTime(serverMillis));
+        }
+    }
+
+    // Every line of the session between two server times, whatever the filters hide
+    private void showServerTimeRange(final SessionTab session)
+    {
+        final String range = JOptionPane.showInputDialog(this, "Show lines between server times (HH:mm - HH:mm):");
+        if (range == null)
+        {
+            return;
+        }
+
+        final String[] times = StringUtils.splitByWholeSeparator(range, " - ");
+        final LogStore store = session.getStore();
+        final long from = times.length == 2 ? parseServerTime(times[0], store) : -1;
+        final long to = times.length == 2 ? parseServerTime(times[1], store) : -1;
+        if (from < 0 || to < from)
+        {
+            return;
+        }
+
+        final StringBuilder text = new StringBuilder();
+        final int end = store.findServerTime(to + 1000);
+        for (int i = store.findServerTime(from); i < end; i++)
+        {
+            text.append(store.getText(i)).append(SystemUtils.LINE_SEPARATOR);
+        }
+
+        final JTextArea area = new JTextArea(text.toString(), 30, 120);
+        area.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(area), range.trim(), JOptionPane.PLAIN_MESSAGE);
+    }
+
+    // A bare time means its latest occurrence up to the newest line of the session, -1 when it can't be read
+    private static long parseServerTime(final String text, final LogStore store)
+    {
+        final ZoneId zone = ZoneId.systemDefault();
+        try
+        {
+            if (text.trim().length() > 8)
+            {
+                return LocalDateTime.parse(text.trim(), SERVER_TIME_FORMAT).atZone(zone).toInstant().toEpochMilli();
+            }
+
+            final long newest = store.size() == 0 ? -1 : store.getServerMillis(store.size() - 1);
+            final LocalDateTime reference = LocalDateTime.ofInstant(Instant.ofEpochMilli(newest < 0 ? System.currentTimeMillis() : newest), zone);
+            LocalDateTime time = LocalTime.parse(text.trim()).atDate(reference.toLocalDate());
+            if (time.isAfter(reference))
+            {
+                time = time.minusDays(1);
+            }
+            return time.atZone(zone).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException ex)
+        {
+            return -1;
+        }
+    }
+
+    // Reads only the archive blocks around the given time, on its own thread as a month of files may be looked at
+    private void showArchive(final ConnectionManager connection)
+    {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        final String time = JOptionPane.showInputDialog(this, "Show the ten minutes around server time (yyyy-MM-dd HH:mm):", format.format(new Date()));
+        if (time == null)
+        {
+            return;
+        }
+
+        final long center;
+        try
+        {
+            center = format.parse(time.trim()).getTime();
+        }
+        catch (ParseException ex)
+        {
+            return;
+        }
+
+        final File directory = connection.getArchiveDirectory();
+        new Thread(()
+                -> 
+                {
+                    final SimpleDateFormat lineFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss ");
+                    final StringBuilder text = new StringBuilder();
+                    try
                     {
-                        throw new RuntimeException(ex);
+                        LogArchive.read(directory, center - ARCHIVE_WINDOW_MILLIS, center + ARCHIVE_WINDOW_MILLIS, true, (receivedMillis, serverMillis, line)
+                                -> 
+                                {
+                                    text.append(lineFormat.format(new Date(serverMillis))).append(line).append(SystemUtils.LINE_SEPARATOR);
+                        });
                     }
-
-                    if (MainPanel.this.chkAutoScroll.isSelected() && MainPanel.this.mainOutput.getSelectedText() == null)
+                    catch (IOException ex)
                     {
-                        final JScrollBar vScroll = mainOutputScoll.getVerticalScrollBar();
+                        text.append(ex.getMessage());
+                    }
 
-                        if (!vScroll.getValueIsAdjusting())
-                        {
-                            if (vScroll.getValue() + vScroll.getModel().getExtent() >= (vScroll.getMaximum() - 50))
+                    EventQueue.invokeLater(()
+                            -> 
                             {
-                                MainPanel.this.mainOutput.setCaretPosition(startLength);
+                                final JTextArea area = new JTextArea(text.toString(), 30, 120);
+                                area.setEditable(false);
+                                JOptionPane.showMessageDialog(this, new JScrollPane(area), "Archive of " + directory.getName(), JOptionPane.PLAIN_MESSAGE);
+                    });
+        }, "TelnetKek-Archive").start();
+    }
 
-                                final Timer timer = new Timer(10, (ActionEvent ae)
-                                        -> 
-                                        {
-                                            vScroll.setValue(vScroll.getMaximum());
-                                });
-                                timer.setRepeats(false);
-                                timer.start();
-                            }
-                        }
-                    }
-        });
+    private void updateTitle(final ConnectionManager connection)
+    {
+        String title;
+
+        if (connection.isActive())
+        {
+            if (connection.getLoginName() == null)
+            {
+                title = String.format("TelnetKek - %s - %s:%d", TelnetKek.VERSION_STRING, connection.getHostname(), connection.getPort());
+            }
+            else
+            {
+                title = String.format("TelnetKek - %s - %s@%s:%d", TelnetKek.VERSION_STRING, connection.getLoginName(), connection.getHostname(), connection.getPort());
+            }
+        }
+        else
+        {
+            title = String.format("TelnetKek - %s - Disconnected", TelnetKek.VERSION_STRING);
+        }
+
+        setTitle(title);
+    }
+
+    public void writeToConsole(final ConsoleMessage message)
+    {
+        getSelectedSession().writeToConsole(message);
     }
 
     public final PlayerInfo getSelectedPlayer()
     {
         final JTable table = MainPanel.this.tblPlayers;
 
+        final List<PlayerInfo> playerList = getPlayerList();
+
         final int selectedRow = table.getSelectedRow();
         if (selectedRow < 0 || selectedRow >= playerList.size())
         {
@@ -237,27 +539,25 @@ public class MainPanel extends javax.swing.JFrame
         }
     }
 
-    public final void updatePlayerList(final String selectedPlayerName)
+    public final void playerListChanged(final String selectedPlayerName)
     {
-        EventQueue.invokeLater(()
-                -> 
-                {
-                    playerListTableModel.fireTableDataChanged();
+        final List<PlayerInfo> playerList = getPlayerList();
+        final boolean stale = getSelectedSession().isPlayerListStale();
 
-                    MainPanel.this.txtNumPlayers.setText("" + playerList.size());
+        MainPanel.this.txtNumPlayers.setText(playerList.size() + (stale ? " (stale)" : ""));
+        MainPanel.this.tblPlayers.setForeground(stale ? Color.GRAY : this.playerTableForeground);
 
-                    if (selectedPlayerName != null)
-                    {
-                        final JTable table = MainPanel.this.tblPlayers;
-                        final ListSelectionModel selectionModel = table.getSelectionModel();
+        if (selectedPlayerName != null)
+        {
+            final JTable table = MainPanel.this.tblPlayers;
+            final ListSelectionModel selectionModel = table.getSelectionModel();
 
-                        playerList.stream().filter((player) -> (player.getName().equals(selectedPlayerName))).forEach((player)
-                                -> 
-                                {
-                                    selectionModel.setSelectionInterval(0, table.convertRowIndexToView(playerList.indexOf(player)));
-                        });
-                    }
-        });
+            playerList.stream().filter((player) -> (player.getName().equals(selectedPlayerName))).forEach((player)
+                    -> 
+                    {
+                        selectionModel.setSelectionInterval(0, table.convertRowIndexToView(playerList.indexOf(player)));
+            });
+        }
     }
 
     public static class PlayerListPopupItem extends JMenuItem
@@ -340,7 +640,7 @@ public class MainPanel extends javax.swing.JFrame
                                     {
                                         final PlayerListPopupItem_Command source = (PlayerListPopupItem_Command) _source;
                                         final String output = source.getCommand().buildOutput(source.getPlayer(), true);
-                                        MainPanel.this.getConnectionManager().sendDelayedCommand(output, true, 100);
+                                        MainPanel.this.getConnectionManager().sendDelayedCommand(output, true, 100, CommandScheduler.Lane.URGENT);
                                     }
                                     else if (_source instanceof PlayerListPopupItem)
                                     {
@@ -429,8 +729,22 @@ public class MainPanel extends javax.swing.JFrame
     public final void triggerConnect()
     {
         ServerEntry entry = saveServers();
+        if (entry == null)
+        {
+            return;
+        }
         loadServerList();
-        getConnectionManager().triggerConnect(entry.getAddress());
+
+        // Busy sessions stay connected, the new server gets its own tab
+        SessionTab session = getSelectedSession();
+        if (session.getConnectionManager().isActive())
+        {
+            session = addSession(SessionTab.create());
+            this.sessionTabs.setSelectedComponent(session.getComponent());
+        }
+
+        this.sessionTabs.setTitleAt(this.sessionTabs.getSelectedIndex(), entry.getName());
+        session.getConnectionManager().triggerConnect(entry);
     }
 
     public final ServerEntry saveServers()
@@ -928,9 +1242,9 @@ public class MainPanel extends javax.swing.JFrame
         return btnSend;
     }
 
-    public javax.swing.JTextPane getMainOutput()
+    public ConsoleView getMainOutput()
     {
-        return mainOutput;
+        return getSelectedSession().getOutput();
     }
 
     public javax.swing.JTextField getTxtCommand()
@@ -970,11 +1284,11 @@ public class MainPanel extends javax.swing.JFrame
 
     public List<PlayerInfo> getPlayerList()
     {
-        return playerList;
+        return getSelectedSession().getPlayerList();
     }
 
     public ConnectionManager getConnectionManager()
     {
-        return connectionManager;
+        return getSelectedSession().getConnectionManager();
     }
 }
@@ -0,0 +1,172 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.util.EnumSet;
+import java.util.List;
+import me.mayo.telnetkek.TelnetMessage.LogMessageType;
+import me.mayo.telnetkek.highlight.HighlightMatcher;
+import me.mayo.telnetkek.highlight.HighlightRule;
+import me.mayo.telnetkek.store.LogStore;
+
+// Immutable, so the processing threads never look at Swing state; a new snapshot is published on every change
+public final class MessageFilter
+{
+
+    private static final LogMessageType[] TYPES = LogMessageType.values();
+    private static final EnumSet<LogMessageType> CHAT_TYPES = EnumSet.of(
+            LogMessageType.CHAT_MESSAGE,
+            LogMessageType.CSAY_MESSAGE,
+            LogMessageType.SAY_MESSAGE,
+            LogMessageType.SA_ADMIN,
+            LogMessageType.STA_ADMIN,
+            LogMessageType.SRA_ADMIN,
+            LogMessageType.DEV_ADMIN,
+            LogMessageType.OWNER_ADMIN,
+            LogMessageType.FOUNDER_ADMIN,
+            LogMessageType.CONSOLE_ADMIN);
+
+    private static volatile MessageFilter current = new MessageFilter(false, false, false, false, HighlightMatcher.EMPTY);
+
+    private final boolean showChatOnly;
+    private final boolean ignoreServerCommands;
+    private final boolean ignorePlayerCommands;
+    private final boolean ignoreErrors;
+    private final HighlightMatcher highlighter;
+    // One bit per (type, highlight rule) pair, slot 0 of each stands for no type or no rule
+    private final int ruleSlots;
+    private final long[] hidden;
+
+    public MessageFilter(final boolean showChatOnly, final boolean ignoreServerCommands, final boolean ignorePlayerCommands, final boolean ignoreErrors, final HighlightMatcher highlighter)
+    {
+        this.showChatOnly = showChatOnly;
+        this.ignoreServerCommands = ignoreServerCommands;
+        this.ignorePlayerCommands = ignorePlayerCommands;
+        this.ignoreErrors = ignoreErrors;
+        this.highlighter = highlighter;
+
+        final List<HighlightRule> rules = highlighter.getRules();
+        this.ruleSlots = rules.size() + 1;
+        this.hidden = new long[((TYPES.length + 1) * this.ruleSlots + 63) >>> 6];
+
+        final EnumSet<LogMessageType> hiddenTypes = EnumSet.noneOf(LogMessageType.class);
+        if (showChatOnly)
+        {
+            hiddenTypes.addAll(EnumSet.complementOf(CHAT_TYPES));
+        }
+        else
+        {
+            if (ignoreServerCommands)
+            {
+                hiddenTypes.add(LogMessageType.ISSUED_SERVER_COMMAND);
+            }
+            if (ignorePlayerCommands)
+            {
+                hiddenTypes.add(LogMessageType.PLAYER_COMMAND);
+            }
+        }
+
+        for (int typeSlot = 0; typeSlot <= TYPES.length; typeSlot++)
+        {
+            // Untyped lines only pass the chat filter if they are chat, which they never are
+            final boolean typeHidden = typeSlot == 0 ? showChatOnly : hiddenTypes.contains(TYPES[typeSlot - 1]);
+
+            for (int ruleSlot = 0; ruleSlot < this.ruleSlots; ruleSlot++)
+            {
+                if (typeHidden || (ruleSlot > 0 && rules.get(ruleSlot - 1).isHide()))
+                {
+                    final int bit = typeSlot * this.ruleSlots + ruleSlot;
+                    this.hidden[bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+    }
+
+    public static MessageFilter getCurrent()
+    {
+        final MessageFilter filter = current;
+        final HighlightMatcher highlighter = TelnetKek.config.getHighlighter();
+        if (filter.highlighter != highlighter)
+        {
+            // The highlight rules were reloaded, keep the switches and pick up the new rules
+            publish(filter.withHighlighter(highlighter));
+            return current;
+        }
+        return filter;
+    }
+
+    public static void publish(final MessageFilter filter)
+    {
+        current = filter;
+    }
+
+    public MessageFilter withHighlighter(final HighlightMatcher newHighlighter)
+    {
+        return new MessageFilter(this.showChatOnly, this.ignoreServerCommands, this.ignorePlayerCommands, this.ignoreErrors, newHighlighter);
+    }
+
+    public boolean isHidden(final TelnetMessage message)
+    {
+        final LogMessageType type = message.getMessageType();
+        HighlightRule highlight = message.getHighlight();
+        if (message.getHighlighter() != this.highlighter)
+        {
+            // Matched just before a reload, the rule index belongs to the old list
+            final ParsedLine parsed = message.getParsed();
+            highlight = this.highlighter.rematch(message.getMessage(), parsed.getBodyStart(), parsed.getBodyEnd());
+        }
+        return isHidden(type == null ? 0 : type.ordinal() + 1, highlight == null ? 0 : highlight.getIndex() + 1);
+    }
+
+    // Lines already in the store are filtered again whenever a new snapshot is published
+    public boolean isHidden(final LogStore store, final int index)
+    {
+        if (store.isError(index) && this.ignoreErrors)
+        {
+            return true;
+        }
+        return store.isTelnet(index) && isHidden(store.getTypeSlot(index), store.getRuleSlot(index, this.highlighter));
+    }
+
+    private boolean isHidden(final int typeSlot, final int ruleSlot)
+    {
+        final int bit = typeSlot * this.ruleSlots + ruleSlot;
+        return (this.hidden[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public boolean isShowChatOnly()
+    {
+        return this.showChatOnly;
+    }
+
+    public boolean isIgnoreServerCommands()
+    {
+        return this.ignoreServerCommands;
+    }
+
+    public boolean isIgnorePlayerCommands()
+    {
+        return this.ignorePlayerCommands;
+    }
+
+    public boolean isIgnoreErrors()
+    {
+        return this.ignoreErrors;
+    }
+}
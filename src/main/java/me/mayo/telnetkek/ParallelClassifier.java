@@ -0,0 +1,112 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import me.mayo.telnetkek.net.ConnectionStats;
+import me.mayo.telnetkek.net.LineEvent;
+import me.mayo.telnetkek.net.LineRingBuffer;
+
+// Classifies a whole batch on a fork-join pool once the backlog is large, the consumer still dispatches in sequence order
+final class ParallelClassifier
+{
+
+    static final int DEFAULT_THRESHOLD = 1024;
+    private static final int CHUNK = 64;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private final Function<LineEvent, TelnetMessage> classifier;
+    private final ConnectionStats stats;
+    private final TelnetMessage[] prepared = new TelnetMessage[LineRingBuffer.MAX_BATCH];
+    private long firstSequence = 0;
+    private int count = 0;
+
+    ParallelClassifier(final ForkJoinPool pool, final int threshold, final Function<LineEvent, TelnetMessage> classifier, final ConnectionStats stats)
+    {
+        this.pool = pool;
+        this.threshold = threshold;
+        this.classifier = classifier;
+        this.stats = stats;
+    }
+
+    // Called on the consumer thread before the batch is dispatched
+    void prepare(final LineRingBuffer.Batch batch)
+    {
+        this.count = 0;
+
+        if (this.pool == null || batch.getBacklog() < this.threshold || batch.size() < CHUNK * 2)
+        {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        this.pool.invoke(new ClassifyTask(batch, 0, batch.size()));
+        this.firstSequence = batch.getFirstSequence();
+        this.count = batch.size();
+        this.stats.parallelBatch(batch.size(), System.nanoTime() - start);
+    }
+
+    // The prepared message for this sequence, or null if it has to go through the sequential path
+    TelnetMessage take(final long sequence)
+    {
+        final long index = sequence - this.firstSequence;
+        if (index < 0 || index >= this.count)
+        {
+            return null;
+        }
+
+        final TelnetMessage message = this.prepared[(int) index];
+        this.prepared[(int) index] = null;
+        return message;
+    }
+
+    private final class ClassifyTask extends RecursiveAction
+    {
+
+        private final LineRingBuffer.Batch batch;
+        private final int from;
+        private final int to;
+
+        private ClassifyTask(final LineRingBuffer.Batch batch, final int from, final int to)
+        {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (this.to - this.from > CHUNK)
+            {
+                final int middle = (this.from + this.to) >>> 1;
+                invokeAll(new ClassifyTask(this.batch, this.from, middle), new ClassifyTask(this.batch, middle, this.to));
+                return;
+            }
+
+            for (int i = this.from; i < this.to; i++)
+            {
+                ParallelClassifier.this.prepared[i] = ParallelClassifier.this.classifier.apply(this.batch.get(i));
+            }
+        }
+    }
+}
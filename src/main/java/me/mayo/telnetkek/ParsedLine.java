@@ -0,0 +1,279 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import me.mayo.telnetkek.TelnetMessage.LogMessageType;
+import me.mayo.telnetkek.net.RawLine;
+
+public final class ParsedLine
+{
+
+    private static final String HEADER_START = ":[";
+    private static final String HEADER_END = "]: ";
+    private static final String INFO_HEADER = " INFO]: ";
+    private static final byte[] HEADER_START_BYTES = RawLine.ascii(HEADER_START);
+    private static final byte[] HEADER_END_BYTES = RawLine.ascii(HEADER_END);
+    private static final LogMessageType[] TYPES = LogMessageType.values();
+
+    private final String message;
+    private final long receivedMillis;
+    private final int serverSeconds;
+    private final int serverTimeStart;
+    private final int serverTimeEnd;
+    private final Level level;
+    private final int typeOrdinal;
+    private final int bodyStart;
+    private final int bodyEnd;
+
+    private ParsedLine(final String message, final long receivedMillis, final int serverTimeEnd, final Level level, final int typeOrdinal, final int bodyStart, final int bodyEnd)
+    {
+        this.message = message;
+        this.receivedMillis = receivedMillis;
+        this.serverTimeStart = serverTimeEnd < 0 ? -1 : HEADER_START.length();
+        this.serverTimeEnd = serverTimeEnd;
+        this.serverSeconds = serverTimeEnd < 0 ? -1 : parseSeconds(message, this.serverTimeStart, serverTimeEnd);
+        this.level = level;
+        this.typeOrdinal = typeOrdinal;
+        this.bodyStart = bodyStart;
+        this.bodyEnd = bodyEnd;
+    }
+
+    // One scan finds the first ":[<time> <LEVEL>]: " header, the type classifier carries on from there
+    public static ParsedLine parse(final String message, final long receivedMillis)
+    {
+        final int limit = LogMessageClassifier.findLineTerminator(message);
+
+        if (!message.startsWith(HEADER_START))
+        {
+            return new ParsedLine(message, receivedMillis, -1, null, -1, 0, limit);
+        }
+
+        for (int end = message.indexOf(HEADER_END, HEADER_START.length() + 1); end >= 0 && end + HEADER_END.length() <= limit; end = message.indexOf(HEADER_END, end + 1))
+        {
+            final Level level = Level.endingAt(message, end);
+            if (level == null)
+            {
+                continue;
+            }
+
+            final int levelStart = end - level.name().length() - 1;
+            final int infoHeader = level == Level.INFO ? levelStart : message.indexOf(INFO_HEADER, end);
+            final LogMessageType type = LogMessageType.getMessageType(message, limit, infoHeader);
+
+            return new ParsedLine(message, receivedMillis, levelStart, level, type == null ? -1 : type.ordinal(), end + HEADER_END.length(), limit);
+        }
+
+        return new ParsedLine(message, receivedMillis, -1, null, -1, 0, limit);
+    }
+
+    // Where getBodyStart() of the parsed line would be when its header is INFO, found in the received bytes, -1 for
+    // any other line
+    public static int findInfoBodyStart(final RawLine line)
+    {
+        if (!line.startsWith(HEADER_START_BYTES))
+        {
+            return -1;
+        }
+
+        for (int end = line.indexOf(HEADER_END_BYTES, HEADER_START.length() + 1); end >= 0; end = line.indexOf(HEADER_END_BYTES, end + 1))
+        {
+            final Level level = Level.endingAt(line, end);
+            if (level != null)
+            {
+                final int bodyStart = end + HEADER_END.length();
+                return level == Level.INFO && !hasLineTerminator(line, bodyStart) ? bodyStart : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasLineTerminator(final RawLine line, final int end)
+    {
+        for (int i = 0; i < end; i++)
+        {
+            final byte b = line.byteAt(i);
+            if (b == '\n' || b == '\r')
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Only the time of a ":[HH:mm:ss LEVEL]: " header, for consumers that don't need the rest of the parse
+    public static int parseServerSeconds(final String message)
+    {
+        final int end = HEADER_START.length() + 8;
+        if (message.length() <= end || !message.startsWith(HEADER_START) || message.charAt(end) != ' ')
+        {
+            return -1;
+        }
+        return parseSeconds(message, HEADER_START.length(), end);
+    }
+
+    // The same straight from the received bytes, the header is ASCII in any charset a server sends
+    public static int parseServerSeconds(final RawLine line)
+    {
+        final int start = HEADER_START.length();
+        final int end = start + 8;
+        if (line.length() <= end || line.byteAt(0) != ':' || line.byteAt(1) != '[' || line.byteAt(end) != ' '
+                || line.byteAt(start + 2) != ':' || line.byteAt(start + 5) != ':')
+        {
+            return -1;
+        }
+
+        return toSeconds(parseTwoDigits(line.byteAt(start), line.byteAt(start + 1)),
+                parseTwoDigits(line.byteAt(start + 3), line.byteAt(start + 4)),
+                parseTwoDigits(line.byteAt(start + 6), line.byteAt(start + 7)));
+    }
+
+    // HH:mm:ss as seconds of the day, -1 for anything else
+    private static int parseSeconds(final String message, final int start, final int end)
+    {
+        if (end - start != 8 || message.charAt(start + 2) != ':' || message.charAt(start + 5) != ':')
+        {
+            return -1;
+        }
+
+        return toSeconds(parseTwoDigits(message.charAt(start), message.charAt(start + 1)),
+                parseTwoDigits(message.charAt(start + 3), message.charAt(start + 4)),
+                parseTwoDigits(message.charAt(start + 6), message.charAt(start + 7)));
+    }
+
+    private static int toSeconds(final int hours, final int minutes, final int seconds)
+    {
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59)
+        {
+            return -1;
+        }
+
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+
+    private static int parseTwoDigits(final int tensDigit, final int onesDigit)
+    {
+        final int tens = tensDigit - '0';
+        final int ones = onesDigit - '0';
+        if (tens < 0 || tens > 9 || ones < 0 || ones > 9)
+        {
+            return -1;
+        }
+        return tens * 10 + ones;
+    }
+
+    public String getMessage()
+    {
+        return this.message;
+    }
+
+    public long getReceivedMillis()
+    {
+        return this.receivedMillis;
+    }
+
+    public boolean hasHeader()
+    {
+        return this.level != null;
+    }
+
+    public int getServerSeconds()
+    {
+        return this.serverSeconds;
+    }
+
+    public String getServerTime()
+    {
+        return this.serverTimeEnd < 0 ? null : this.message.substring(this.serverTimeStart, this.serverTimeEnd);
+    }
+
+    public Level getLevel()
+    {
+        return this.level;
+    }
+
+    public int getTypeOrdinal()
+    {
+        return this.typeOrdinal;
+    }
+
+    public LogMessageType getMessageType()
+    {
+        return this.typeOrdinal < 0 ? null : TYPES[this.typeOrdinal];
+    }
+
+    public int getBodyStart()
+    {
+        return this.bodyStart;
+    }
+
+    public int getBodyEnd()
+    {
+        return this.bodyEnd;
+    }
+
+    public String getBody()
+    {
+        return this.message.substring(this.bodyStart, this.bodyEnd);
+    }
+
+    public static enum Level
+    {
+
+        INFO, WARN, ERROR;
+
+        private static final Level[] LEVELS = values();
+
+        private static Level endingAt(final String message, final int end)
+        {
+            for (final Level level : LEVELS)
+            {
+                final int start = end - level.name().length() - 1;
+                // At least one character of time between ":[" and the level
+                if (start > HEADER_START.length() && message.charAt(start) == ' ' && message.startsWith(level.name(), start + 1))
+                {
+                    return level;
+                }
+            }
+            return null;
+        }
+
+        private static Level endingAt(final RawLine line, final int end)
+        {
+            outer:
+            for (final Level level : LEVELS)
+            {
+                final String name = level.name();
+                final int start = end - name.length() - 1;
+                if (start <= HEADER_START.length() || line.byteAt(start) != ' ')
+                {
+                    continue;
+                }
+                for (int i = 0; i < name.length(); i++)
+                {
+                    if (line.byteAt(start + 1 + i) != name.charAt(i))
+                    {
+                        continue outer;
+                    }
+                }
+                return level;
+            }
+            return null;
+        }
+    }
+}
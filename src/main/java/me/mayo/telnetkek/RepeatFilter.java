@@ -0,0 +1,116 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import me.mayo.telnetkek.net.LineEvent;
+import me.mayo.telnetkek.net.LineRingBuffer;
+import me.mayo.telnetkek.net.RawLine;
+
+// Spots INFO lines that repeat one of the last few distinct ones, header left out, before they are classified.
+// Each line is hashed once over its raw bytes, a whole batch up front, so the parallel classifier skips the copies too.
+// A hash match is only a candidate, the bytes are compared before a line is counted as a repeat.
+final class RepeatFilter
+{
+
+    static final int WINDOW = 8;
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private final long[] hashes = new long[WINDOW];
+    private final int[] lengths = new int[WINDOW];
+    private final long[] sequences = new long[WINDOW];
+    // The body bytes of every window line, the ring may have reused the original's slot
+    private final byte[][] bodies = new byte[WINDOW][64];
+    private long distinct = 0;
+    private final long[] originals = new long[LineRingBuffer.MAX_BATCH];
+    private long firstSequence = 0;
+    private int count = 0;
+
+    // Called on the consumer thread before the batch is classified
+    void mark(final LineRingBuffer.Batch batch)
+    {
+        this.firstSequence = batch.getFirstSequence();
+        this.count = batch.size();
+        for (int i = 0; i < this.count; i++)
+        {
+            this.originals[i] = check(batch.get(i));
+        }
+    }
+
+    // The sequence of the earlier identical line, or -1
+    long originalOf(final long sequence)
+    {
+        final long index = sequence - this.firstSequence;
+        return index < 0 || index >= this.count ? -1 : this.originals[(int) index];
+    }
+
+    private long check(final LineEvent event)
+    {
+        // Only INFO lines, stack traces and warnings are folded elsewhere
+        final int bodyStart = event.isEndOfStream() ? -1 : ParsedLine.findInfoBodyStart(event.getLine());
+        if (bodyStart < 0)
+        {
+            return -1;
+        }
+
+        final RawLine line = event.getLine();
+        final int bodyLength = line.length() - bodyStart;
+        long hash = FNV_OFFSET;
+        for (int i = bodyStart; i < line.length(); i++)
+        {
+            hash = (hash ^ (line.byteAt(i) & 0xFF)) * FNV_PRIME;
+        }
+
+        final int filled = (int) Math.min(this.distinct, WINDOW);
+        for (int slot = 0; slot < filled; slot++)
+        {
+            if (this.hashes[slot] == hash && this.lengths[slot] == bodyLength && sameBody(slot, line, bodyStart))
+            {
+                return this.sequences[slot];
+            }
+        }
+
+        final int slot = (int) (this.distinct++ % WINDOW);
+        this.hashes[slot] = hash;
+        this.lengths[slot] = bodyLength;
+        this.sequences[slot] = event.getSequence();
+        if (this.bodies[slot].length < bodyLength)
+        {
+            this.bodies[slot] = new byte[Math.max(bodyLength, this.bodies[slot].length * 2)];
+        }
+        for (int i = 0; i < bodyLength; i++)
+        {
+            this.bodies[slot][i] = line.byteAt(bodyStart + i);
+        }
+        return -1;
+    }
+
+    private boolean sameBody(final int slot, final RawLine line, final int bodyStart)
+    {
+        final byte[] body = this.bodies[slot];
+        for (int i = bodyStart; i < line.length(); i++)
+        {
+            if (body[i - bodyStart] != line.byteAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,180 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.Arrays;
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import me.mayo.telnetkek.store.SearchIndex;
+
+public class SearchBar extends JPanel
+{
+
+    private final ConsoleView view;
+    private final JTextField queryField = new JTextField(24);
+    private final JLabel status = new JLabel();
+    private SearchIndex.Query query;
+    // Store index of the selected match, or -1
+    private int current = -1;
+
+    public SearchBar(final ConsoleView view)
+    {
+        super(new FlowLayout(FlowLayout.LEFT, 4, 2));
+        this.view = view;
+
+        setBackground(new Color(68, 68, 68));
+        this.status.setForeground(Color.WHITE);
+
+        final JLabel label = new JLabel("Find:");
+        label.setForeground(Color.WHITE);
+        add(label);
+        add(this.queryField);
+
+        final JButton previous = new JButton("Previous");
+        previous.addActionListener(event -> step(true));
+        add(previous);
+
+        final JButton next = new JButton("Next");
+        next.addActionListener(event -> step(false));
+        add(next);
+
+        final JButton close = new JButton("Close");
+        close.addActionListener(event -> close());
+        add(close);
+
+        add(this.status);
+
+        this.queryField.getDocument().addDocumentListener(new DocumentListener()
+        {
+            @Override
+            public void insertUpdate(final DocumentEvent event)
+            {
+                search();
+            }
+
+            @Override
+            public void removeUpdate(final DocumentEvent event)
+            {
+                search();
+            }
+
+            @Override
+            public void changedUpdate(final DocumentEvent event)
+            {
+                search();
+            }
+        });
+
+        final InputMap inputMap = this.queryField.getInputMap();
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "next");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, KeyEvent.SHIFT_DOWN_MASK), "previous");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "close");
+        final ActionMap actionMap = this.queryField.getActionMap();
+        actionMap.put("next", action(() -> step(false)));
+        actionMap.put("previous", action(() -> step(true)));
+        actionMap.put("close", action(this::close));
+
+        setVisible(false);
+    }
+
+    public void open()
+    {
+        setVisible(true);
+        revalidate();
+        this.queryField.selectAll();
+        this.queryField.requestFocusInWindow();
+        search();
+    }
+
+    public void close()
+    {
+        setVisible(false);
+        revalidate();
+        this.query = null;
+        this.current = -1;
+        this.view.setHighlight(null);
+        this.view.requestFocusInWindow();
+    }
+
+    private void search()
+    {
+        final String text = this.queryField.getText();
+        this.current = -1;
+
+        if (text.isEmpty())
+        {
+            this.query = null;
+            this.view.setHighlight(null);
+            this.status.setText("");
+            return;
+        }
+
+        this.query = SearchIndex.compile(text);
+        this.view.setHighlight(this.query);
+        step(false);
+    }
+
+    // Starts at the newest match and wraps around, lines that arrived since the last step are searched too
+    private void step(final boolean older)
+    {
+        if (this.query == null)
+        {
+            return;
+        }
+
+        final int[] matches = this.view.find(this.query);
+        if (matches.length == 0)
+        {
+            this.current = -1;
+            this.status.setText("No matches");
+            return;
+        }
+
+        int position = matches.length - 1;
+        if (this.current >= 0)
+        {
+            // A match that has been trimmed away since still has its place in the order
+            final int found = Arrays.binarySearch(matches, this.current);
+            final int at = found >= 0 ? found : -found - 1;
+            position = older ? at - 1 : (found >= 0 ? at + 1 : at);
+            position = (position + matches.length) % matches.length;
+        }
+
+        this.current = matches[position];
+        this.view.selectMatch(this.current, this.query);
+        this.status.setText((position + 1) + " of " + matches.length);
+    }
+
+    private static Action action(final Runnable runnable)
+    {
+        return new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(final ActionEvent event)
+            {
+                runnable.run();
+            }
+        };
+    }
+}
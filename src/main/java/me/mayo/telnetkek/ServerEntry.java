@@ -22,6 +22,8 @@ import me.mayo.telnetkek.parameter.ParameterSetter;
 import me.mayo.telnetkek.parameter.ParameterGetter;
 import me.mayo.telnetkek.config.ConfigEntry;
 import me.mayo.telnetkek.config.ConfigEntryList;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Objects;
 
@@ -31,6 +33,8 @@ public class ServerEntry extends ConfigEntry
     private String name;
     private String address;
     private boolean lastUsed = false;
+    private String charset = StandardCharsets.UTF_8.name();
+    private boolean autoReconnect = false;
 
     public ServerEntry()
     {
@@ -85,6 +89,42 @@ public class ServerEntry extends ConfigEntry
         this.lastUsed = lastUsed;
     }
 
+    @ParameterGetter(name = "charset")
+    public String getCharset()
+    {
+        return charset;
+    }
+
+    @ParameterSetter(name = "charset")
+    public void setCharset(String charset)
+    {
+        this.charset = charset;
+    }
+
+    @ParameterGetter(name = "autoReconnect")
+    public boolean isAutoReconnect()
+    {
+        return autoReconnect;
+    }
+
+    @ParameterSetter(name = "autoReconnect")
+    public void setAutoReconnect(Boolean autoReconnect)
+    {
+        this.autoReconnect = autoReconnect;
+    }
+
+    public Charset toCharset()
+    {
+        try
+        {
+            return Charset.forName(charset);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
     @Override
     public int hashCode()
     {
@@ -0,0 +1,113 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import me.mayo.telnetkek.net.SelectorLoop;
+
+public class SessionManager
+{
+
+    // All sessions share one selector thread, each active session adds a thread that waits for it to close
+    private final SelectorLoop selectorLoop = new SelectorLoop("TelnetKek-Selector");
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable
+            -> 
+            {
+                final Thread thread = new Thread(runnable, "TelnetKek-Scheduler");
+                thread.setDaemon(true);
+                return thread;
+    });
+    // Line consumers of every session run here, each consumer drains its own batches serially
+    private final AtomicInteger consumerThreads = new AtomicInteger();
+    private final ExecutorService consumerExecutor = Executors.newFixedThreadPool(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), runnable
+            -> 
+            {
+                final Thread thread = new Thread(runnable, "TelnetKek-Consumer-" + this.consumerThreads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+    });
+    // Only used for bursts, a single core machine never classifies in parallel
+    private final ForkJoinPool classifierPool = Runtime.getRuntime().availableProcessors() < 2 ? null
+            : new ForkJoinPool(Runtime.getRuntime().availableProcessors() - 1, pool
+                    -> 
+                    {
+                        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("TelnetKek-Classifier-" + thread.getPoolIndex());
+                        return thread;
+            }, null, false);
+    // Maps the next journal segment of every session ahead of time, off both the ingest and the EDT
+    private final ExecutorService journalExecutor = Executors.newSingleThreadExecutor(runnable
+            -> 
+            {
+                final Thread thread = new Thread(runnable, "TelnetKek-Journal");
+                thread.setDaemon(true);
+                return thread;
+    });
+    private final List<ConnectionManager> sessions = new CopyOnWriteArrayList<>();
+
+    public SessionManager()
+    {
+    }
+
+    public ConnectionManager createSession(final SessionView view)
+    {
+        final ConnectionManager session = new ConnectionManager(this.selectorLoop, this.scheduler, this.consumerExecutor, this.classifierPool, view);
+        this.sessions.add(session);
+        return session;
+    }
+
+    public void closeSession(final ConnectionManager session)
+    {
+        session.triggerDisconnect();
+        this.sessions.remove(session);
+    }
+
+    public List<ConnectionManager> getSessions()
+    {
+        return Collections.unmodifiableList(this.sessions);
+    }
+
+    public SelectorLoop getSelectorLoop()
+    {
+        return this.selectorLoop;
+    }
+
+    public ScheduledExecutorService getScheduler()
+    {
+        return this.scheduler;
+    }
+
+    public ExecutorService getConsumerExecutor()
+    {
+        return this.consumerExecutor;
+    }
+
+    public ExecutorService getJournalExecutor()
+    {
+        return this.journalExecutor;
+    }
+}
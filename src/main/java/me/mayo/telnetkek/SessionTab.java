@@ -0,0 +1,385 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.EventQueue;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.*;
+import javax.swing.Timer;
+import me.mayo.telnetkek.player.PlayerInfo;
+import me.mayo.telnetkek.store.LogStore;
+
+public class SessionTab implements SessionView
+{
+
+    private static final String JOURNAL_DIRECTORY = "journal";
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+    // A trace only counts up an identical one this close to the end of the store, further back it would go unseen
+    private static final int REPEAT_WINDOW = 1000;
+    private static final int RECENT_LINES = 64;
+
+    private final ConsoleView output;
+    private final JScrollPane outputScroll;
+    private final SearchBar searchBar;
+    private final JPanel component = new JPanel(new BorderLayout());
+    private final List<PlayerInfo> playerList = new ArrayList<>();
+    private final MainPanel.PlayerListTableModel playerListTableModel = new MainPanel.PlayerListTableModel(playerList);
+    private final TraceFolder traceFolder = new TraceFolder();
+    private final LogStore store;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile boolean repeatsChanged = false;
+    // The last lines written and where they went in the store, so a repeated one can be counted up
+    private final ConsoleMessage[] recentLines = new ConsoleMessage[RECENT_LINES];
+    private final int[] recentIndexes = new int[RECENT_LINES];
+    private int recentNext = 0;
+    // Lines of the store that have been through the filter into the view, only touched on the EDT
+    private int displayed = 0;
+    private long lastFrameNanos = 0;
+    private final Timer frameTimer;
+    private volatile boolean playerListStale = false;
+    private ConnectionManager connectionManager;
+
+    public SessionTab(final JScrollPane outputScroll)
+    {
+        final ConsoleSettings settings = TelnetKek.config.getConsoleSettings();
+        this.store = settings.isJournal()
+                ? LogStore.open(new File(JOURNAL_DIRECTORY), settings.getRetainLines(), TelnetKek.sessionManager.getJournalExecutor())
+                : new LogStore();
+
+        this.output = new ConsoleView(store);
+        this.outputScroll = outputScroll;
+        outputScroll.setViewportView(this.output);
+        outputScroll.getViewport().addChangeListener(event -> this.output.viewportMoved());
+
+        this.searchBar = new SearchBar(this.output);
+        this.component.add(this.searchBar, BorderLayout.NORTH);
+        this.component.add(outputScroll, BorderLayout.CENTER);
+
+        this.frameTimer = new Timer(0, event -> drain());
+        this.frameTimer.setRepeats(false);
+    }
+
+    public static SessionTab create()
+    {
+        return new SessionTab(new JScrollPane());
+    }
+
+    public ConsoleView getOutput()
+    {
+        return output;
+    }
+
+    public JScrollPane getOutputScroll()
+    {
+        return outputScroll;
+    }
+
+    // What goes into the session tab, the console with its search bar
+    public JComponent getComponent()
+    {
+        return component;
+    }
+
+    public void showSearch()
+    {
+        searchBar.open();
+    }
+
+    @Override
+    public List<PlayerInfo> getPlayerList()
+    {
+        return playerList;
+    }
+
+    public MainPanel.PlayerListTableModel getPlayerListTableModel()
+    {
+        return playerListTableModel;
+    }
+
+    public ConnectionManager getConnectionManager()
+    {
+        return connectionManager;
+    }
+
+    public void setConnectionManager(ConnectionManager connectionManager)
+    {
+        this.connectionManager = connectionManager;
+    }
+
+    private boolean isSelected()
+    {
+        final MainPanel mainPanel = TelnetKek.mainPanel;
+        return mainPanel != null && mainPanel.getSelectedSession() == this;
+    }
+
+    private String getSelectedPlayerName()
+    {
+        final PlayerInfo selectedPlayer = isSelected() ? TelnetKek.mainPanel.getSelectedPlayer() : null;
+        return selectedPlayer == null ? null : selectedPlayer.getName();
+    }
+
+    @Override
+    public void connectionStateChanged(final ConnectionManager connection)
+    {
+        final MainPanel mainPanel = TelnetKek.mainPanel;
+        if (mainPanel != null)
+        {
+            mainPanel.updateControls(connection);
+        }
+    }
+
+    public boolean isPlayerListStale()
+    {
+        return playerListStale;
+    }
+
+    // A stale list stays visible after a disconnect until the next fresh player list arrives
+    @Override
+    public void setPlayerListStale(final boolean playerListStale)
+    {
+        this.playerListStale = playerListStale;
+
+        EventQueue.invokeLater(()
+                -> 
+                {
+                    if (isSelected())
+                    {
+                        TelnetKek.mainPanel.playerListChanged(null);
+                    }
+        });
+    }
+
+    // The table paints from playerList, so it is only swapped on the EDT
+    @Override
+    public final void updatePlayerList(final List<PlayerInfo> players)
+    {
+        this.playerListStale = false;
+
+        EventQueue.invokeLater(()
+                -> 
+                {
+                    final String selectedPlayerName = getSelectedPlayerName();
+                    playerList.clear();
+                    playerList.addAll(players);
+                    playerListTableModel.fireTableDataChanged();
+
+                    if (isSelected())
+                    {
+                        TelnetKek.mainPanel.playerListChanged(selectedPlayerName);
+                    }
+        });
+    }
+
+    // An identical recent trace only counts up, anything else goes into the store gray with its first line
+    // standing for the rest, which stays folded until expanded
+    private void flushTrace()
+    {
+        if (!traceFolder.isOpen())
+        {
+            return;
+        }
+
+        final int earlier = traceFolder.findEarlier();
+        if (earlier >= 0 && store.size() - earlier <= REPEAT_WINDOW)
+        {
+            store.repeat(earlier, traceFolder.getLastMillis());
+            repeatsChanged = true;
+            scheduleDrain();
+        }
+        else
+        {
+            final List<TelnetMessage> lines = traceFolder.getLines();
+            final boolean folded = lines.size() > 1;
+            for (int i = 0; i < lines.size(); i++)
+            {
+                final TelnetMessage line = lines.get(i);
+                line.setColor(Color.GRAY);
+                final int index = writeToConsoleImmediately(line, LogStore.FLAG_ERROR | (!folded ? 0 : i == 0 ? LogStore.FLAG_TRACE : LogStore.FLAG_FOLDED));
+                if (i == 0)
+                {
+                    traceFolder.remember(index);
+                }
+            }
+
+            if (traceFolder.getOmitted() > 0)
+            {
+                writeToConsoleImmediately(new ConsoleMessage("... " + traceFolder.getOmitted() + " more lines", Color.GRAY), LogStore.FLAG_ERROR | LogStore.FLAG_FOLDED);
+            }
+        }
+
+        traceFolder.clear();
+    }
+
+    @Override
+    public synchronized void writeToConsole(final ConsoleMessage message)
+    {
+        if (message.getMessage().isEmpty())
+        {
+            return;
+        }
+
+        if (message instanceof TelnetMessage)
+        {
+            final TelnetMessage telnetMessage = (TelnetMessage) message;
+
+            // Headerless lines belong to the trace being gathered, the next header ends it
+            if (!telnetMessage.getParsed().hasHeader() && traceFolder.isOpen())
+            {
+                traceFolder.add(telnetMessage);
+                return;
+            }
+            flushTrace();
+
+            if (telnetMessage.isErrorMessage())
+            {
+                traceFolder.start(telnetMessage);
+                return;
+            }
+        }
+        else
+        {
+            flushTrace();
+        }
+
+        writeToConsoleImmediately(message, 0);
+    }
+
+    @Override
+    public synchronized boolean repeatLine(final ConsoleMessage original, final long receivedMillis)
+    {
+        flushTrace();
+
+        for (int i = 0; i < RECENT_LINES; i++)
+        {
+            if (recentLines[i] == original)
+            {
+                if (store.size() - recentIndexes[i] > REPEAT_WINDOW)
+                {
+                    return false;
+                }
+
+                store.repeat(recentIndexes[i], receivedMillis);
+                repeatsChanged = true;
+                scheduleDrain();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int writeToConsoleImmediately(final ConsoleMessage message, final int flags)
+    {
+        // Hidden lines are kept as well, so a filter change can bring them back
+        final int index = store.append(message, flags);
+        recentLines[recentNext] = message;
+        recentIndexes[recentNext] = index;
+        recentNext = (recentNext + 1) % RECENT_LINES;
+        scheduleDrain();
+        return index;
+    }
+
+    private void scheduleDrain()
+    {
+        if (drainScheduled.compareAndSet(false, true))
+        {
+            SwingUtilities.invokeLater(this::scheduleFrame);
+        }
+    }
+
+    // Lines arriving within a frame of the last render wait for the next one and go out together
+    private void scheduleFrame()
+    {
+        final long wait = lastFrameNanos + FRAME_NANOS - System.nanoTime();
+        if (wait <= 0)
+        {
+            drain();
+        }
+        else
+        {
+            frameTimer.setInitialDelay((int) TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+            frameTimer.restart();
+        }
+    }
+
+    private void drain()
+    {
+        drainScheduled.set(false);
+        lastFrameNanos = System.nanoTime();
+
+        final boolean follow = isFollowingEnd();
+        final int lineCount = output.getLineCount();
+        final int end = store.size();
+
+        output.append(MessageFilter.getCurrent(), displayed, end);
+        displayed = end;
+
+        if (repeatsChanged)
+        {
+            repeatsChanged = false;
+            output.repaint();
+        }
+
+        if (follow && output.getLineCount() != lineCount)
+        {
+            output.scrollToEnd();
+        }
+    }
+
+    // Rebuilds the console from the store, which takes a single pass over the columns
+    public void refilter()
+    {
+        final int end = store.size();
+        output.rebuild(MessageFilter.getCurrent(), end);
+        displayed = end;
+
+        if (TelnetKek.mainPanel.getChkAutoScroll().isSelected())
+        {
+            output.scrollToEnd();
+        }
+    }
+
+    // Flushes the journal, the console keeps showing what it has
+    public void close()
+    {
+        store.close();
+    }
+
+    public LogStore getStore()
+    {
+        return store;
+    }
+
+    // Autoscroll only follows new lines while the view is at the end and nothing is being selected
+    private boolean isFollowingEnd()
+    {
+        if (!TelnetKek.mainPanel.getChkAutoScroll().isSelected() || output.hasSelection())
+        {
+            return false;
+        }
+
+        final JScrollBar vScroll = outputScroll.getVerticalScrollBar();
+        return !vScroll.getValueIsAdjusting() && vScroll.getValue() + vScroll.getModel().getExtent() >= (vScroll.getMaximum() - 50);
+    }
+}
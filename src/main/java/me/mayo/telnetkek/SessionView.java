@@ -0,0 +1,41 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.util.List;
+import me.mayo.telnetkek.player.PlayerInfo;
+
+// Everything a ConnectionManager reports to, implemented by the Swing tabs and the headless sessions
+public interface SessionView
+{
+
+    public void writeToConsole(ConsoleMessage message);
+
+    // Counts up a line already written rather than writing the copy, false when the view wants the copy written
+    public boolean repeatLine(ConsoleMessage original, long receivedMillis);
+
+    public List<PlayerInfo> getPlayerList();
+
+    // Called on the console consumer with a freshly decoded list, in order with the console lines
+    public void updatePlayerList(List<PlayerInfo> players);
+
+    public void setPlayerListStale(boolean playerListStale);
+
+    public void connectionStateChanged(ConnectionManager connection);
+}
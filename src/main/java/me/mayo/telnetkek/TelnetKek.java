@@ -19,10 +19,12 @@
 package me.mayo.telnetkek;
 
 import me.mayo.telnetkek.config.ConfigLoader;
+import me.mayo.telnetkek.headless.HeadlessClient;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.apache.commons.lang3.ArrayUtils;
 
 public class TelnetKek
 {
@@ -31,9 +33,16 @@ public class TelnetKek
     public static final Logger LOGGER = Logger.getLogger(TelnetKek.class.getName());
     public static MainPanel mainPanel = null;
     public static ConfigLoader config = new ConfigLoader();
+    public static SessionManager sessionManager = new SessionManager();
 
     public static void main(String args[])
     {
+        if (ArrayUtils.contains(args, "--headless"))
+        {
+            HeadlessClient.main(args);
+            return;
+        }
+
         config.load(true);
 
         findAndSetLookAndFeel("CDE");
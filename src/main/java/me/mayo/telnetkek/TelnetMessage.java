@@ -20,6 +20,8 @@ package me.mayo.telnetkek;
 
 import java.awt.Color;
 import java.util.regex.Pattern;
+import me.mayo.telnetkek.highlight.HighlightMatcher;
+import me.mayo.telnetkek.highlight.HighlightRule;
 
 public class TelnetMessage extends ConsoleMessage
 {
@@ -28,93 +30,79 @@ public class TelnetMessage extends ConsoleMessage
     private static final Color PURPLE = new Color(128, 0, 128);
     private static final Color DARK_GREEN = new Color(86, 130, 3);
 
-    private static final Pattern ERROR_MESSAGE = Pattern.compile("^:\\[.+? (?:(WARN)|(ERROR))\\]: ");
-    private static final Pattern INFO_MESSAGE = Pattern.compile(PATTERN_PREFIX);
-
+    private final ParsedLine parsed;
     private final LogMessageType messageType;
+    private final HighlightMatcher highlighter;
+    private final HighlightRule highlight;
 
     public TelnetMessage(String message)
     {
-        super(message);
-        this.messageType = LogMessageType.getMessageType(message);
+        this(message, System.currentTimeMillis());
     }
 
-    public LogMessageType getMessageType()
+    public TelnetMessage(String message, long receivedMillis)
     {
-        return this.messageType;
+        super(message);
+        this.parsed = ParsedLine.parse(message, receivedMillis);
+        this.messageType = this.parsed.getMessageType();
+        this.highlighter = TelnetKek.config.getHighlighter();
+        this.highlight = this.highlighter.match(message, this.parsed.getBodyStart(), this.parsed.getBodyEnd());
     }
 
-    public boolean isErrorMessage()
+    public ParsedLine getParsed()
     {
-        return ERROR_MESSAGE.matcher(this.getMessage()).find();
+        return this.parsed;
     }
 
-    public boolean isInfoMessage()
+    public LogMessageType getMessageType()
     {
-        return INFO_MESSAGE.matcher(this.getMessage()).find();
+        return this.messageType;
     }
 
-    private boolean isType(final LogMessageType checkType)
+    // The rule list the highlight was matched against, a reload replaces it
+    public HighlightMatcher getHighlighter()
     {
-        return this.messageType != null ? this.messageType == checkType : false;
+        return this.highlighter;
     }
 
-    public boolean skip()
+    // The first user highlight rule that matched the body, or null
+    public HighlightRule getHighlight()
     {
-        final MainPanel mainPanel = TelnetKek.mainPanel;
-
-        if (mainPanel == null)
-        {
-            return false;
-        }
-
-        if (mainPanel.getChkShowChatOnly().isSelected())
-        {
-            return !isType(LogMessageType.CHAT_MESSAGE)
-                    && !isType(LogMessageType.CSAY_MESSAGE)
-                    && !isType(LogMessageType.SAY_MESSAGE)
-                    && !isType(LogMessageType.SA_ADMIN)
-                    && !isType(LogMessageType.STA_ADMIN)
-                    && !isType(LogMessageType.SRA_ADMIN)
-                    && !isType(LogMessageType.DEV_ADMIN)
-                    && !isType(LogMessageType.OWNER_ADMIN)
-                    && !isType(LogMessageType.FOUNDER_ADMIN)
-                    && !isType(LogMessageType.CONSOLE_ADMIN);
-        }
+        return this.highlight;
+    }
 
-        if (mainPanel.getChkIgnoreServerCommands().isSelected() && isType(LogMessageType.ISSUED_SERVER_COMMAND))
+    public String getCategory()
+    {
+        if (this.highlight != null && this.highlight.getCategory() != null)
         {
-            return true;
+            return this.highlight.getCategory();
         }
+        return this.messageType != null ? this.messageType.name() : null;
+    }
 
-        if (mainPanel.getChkIgnorePlayerCommands().isSelected() && isType(LogMessageType.PLAYER_COMMAND))
-        {
-            return true;
-        }
+    public boolean isErrorMessage()
+    {
+        return this.parsed.getLevel() == ParsedLine.Level.WARN || this.parsed.getLevel() == ParsedLine.Level.ERROR;
+    }
 
-        if (mainPanel.getChkIgnoreErrors().isSelected())
-        {
-            if (!isType(LogMessageType.CHAT_MESSAGE)
-                    && !isType(LogMessageType.CSAY_MESSAGE)
-                    && !isType(LogMessageType.SAY_MESSAGE)
-                    && !isType(LogMessageType.SA_ADMIN)
-                    && !isType(LogMessageType.STA_ADMIN)
-                    && !isType(LogMessageType.SRA_ADMIN)
-                    && !isType(LogMessageType.DEV_ADMIN)
-                    && !isType(LogMessageType.OWNER_ADMIN)
-                    && !isType(LogMessageType.FOUNDER_ADMIN)
-                    && !isType(LogMessageType.CONSOLE_ADMIN))
-            {
-                return false;
-            }
-        }
+    public boolean isInfoMessage()
+    {
+        return this.parsed.getLevel() == ParsedLine.Level.INFO;
+    }
 
-        return false;
+    public boolean skip()
+    {
+        return MessageFilter.getCurrent().isHidden(this);
     }
 
     @Override
     public Color getColor()
     {
+        if (this.highlight != null && this.highlight.getColor() != null)
+        {
+            return this.highlight.getColor();
+        }
+
         if (this.messageType == null)
         {
             return super.getColor();
@@ -159,6 +147,8 @@ public class TelnetMessage extends ConsoleMessage
         SRA_JOIN_MSG(PATTERN_PREFIX + ".+? is a Senior Admin", Color.ORANGE),
         SRA_JOIN_MSG2(PATTERN_PREFIX + ".+? is a Senior Admin ", Color.ORANGE);
 
+        private static final LogMessageClassifier CLASSIFIER = new LogMessageClassifier(values(), PATTERN_PREFIX);
+
         private final Pattern messagePattern;
         private final Color color;
 
@@ -186,14 +176,12 @@ public class TelnetMessage extends ConsoleMessage
 
         public static LogMessageType getMessageType(final String message)
         {
-            for (final LogMessageType type : values())
-            {
-                if (type.getMessagePattern().matcher(message).find())
-                {
-                    return type;
-                }
-            }
-            return null;
+            return CLASSIFIER.classify(message);
+        }
+
+        static LogMessageType getMessageType(final String message, final int limit, final int infoHeader)
+        {
+            return CLASSIFIER.classify(message, limit, infoHeader);
         }
     }
 }
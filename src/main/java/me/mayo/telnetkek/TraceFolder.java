@@ -0,0 +1,122 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Gathers a WARN or ERROR line and the headerless lines after it, usually a stack trace, keeping at most
+// MAX_LINES of them. The hash covers every line but leaves out the header time, so the same trace thrown
+// again matches an earlier one however long it is and whenever it happened.
+public class TraceFolder
+{
+
+    public static final int MAX_LINES = 100;
+    private static final int RECENT_TRACES = 64;
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private final List<TelnetMessage> lines = new ArrayList<>();
+    private int omitted = 0;
+    private long hash;
+    private long lastMillis;
+    // Hash of a trace to the store index of its first line
+    private final Map<Long, Integer> recent = new LinkedHashMap<Long, Integer>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, Integer> eldest)
+        {
+            return size() > RECENT_TRACES;
+        }
+    };
+
+    public boolean isOpen()
+    {
+        return !this.lines.isEmpty();
+    }
+
+    public void start(final TelnetMessage header)
+    {
+        this.lines.clear();
+        this.omitted = 0;
+        this.hash = hash(FNV_OFFSET, header.getMessage(), header.getParsed().getBodyStart());
+        this.hash = this.hash * FNV_PRIME ^ header.getParsed().getLevel().ordinal();
+        this.lines.add(header);
+        this.lastMillis = header.getParsed().getReceivedMillis();
+    }
+
+    public void add(final TelnetMessage line)
+    {
+        this.hash = hash(this.hash * FNV_PRIME ^ '\n', line.getMessage(), 0);
+        this.lastMillis = line.getParsed().getReceivedMillis();
+        if (this.lines.size() < MAX_LINES)
+        {
+            this.lines.add(line);
+        }
+        else
+        {
+            this.omitted++;
+        }
+    }
+
+    public List<TelnetMessage> getLines()
+    {
+        return this.lines;
+    }
+
+    // Lines past MAX_LINES, counted and hashed but not kept
+    public int getOmitted()
+    {
+        return this.omitted;
+    }
+
+    public long getLastMillis()
+    {
+        return this.lastMillis;
+    }
+
+    // The store index of the first line of an identical earlier trace, or -1
+    public int findEarlier()
+    {
+        final Integer index = this.recent.get(this.hash);
+        return index == null ? -1 : index;
+    }
+
+    public void remember(final int index)
+    {
+        this.recent.put(this.hash, index);
+    }
+
+    public void clear()
+    {
+        this.lines.clear();
+        this.omitted = 0;
+    }
+
+    private static long hash(long hash, final String text, final int from)
+    {
+        for (int i = from; i < text.length(); i++)
+        {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -27,7 +27,10 @@ import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import me.mayo.telnetkek.button.FavoriteButtonEntry;
+import me.mayo.telnetkek.highlight.HighlightMatcher;
+import me.mayo.telnetkek.highlight.HighlightRuleEntry;
 import me.mayo.telnetkek.player.PlayerCommandEntry;
+import me.mayo.telnetkek.ConsoleSettings;
 import me.mayo.telnetkek.ServerEntry;
 import me.mayo.telnetkek.TelnetKek;
 import org.apache.commons.io.FileUtils;
@@ -42,6 +45,9 @@ public class ConfigLoader
     private final ServerEntry.ServerEntryList servers = new ServerEntry.ServerEntryList();
     private final PlayerCommandEntry.PlayerCommandEntryList playerCommands = new PlayerCommandEntry.PlayerCommandEntryList();
     private final FavoriteButtonEntry.FavoriteButtonEntryList favoriteButtons = new FavoriteButtonEntry.FavoriteButtonEntryList();
+    private final HighlightRuleEntry.HighlightRuleEntryList highlightRules = new HighlightRuleEntry.HighlightRuleEntryList();
+    private volatile HighlightMatcher highlighter = HighlightMatcher.EMPTY;
+    private volatile ConsoleSettings console = new ConsoleSettings();
 
     public ConfigLoader()
     {
@@ -66,6 +72,8 @@ public class ConfigLoader
         {
             boolean loadError = loadXML(settings);
 
+            this.highlighter = HighlightMatcher.compile(this.highlightRules.getList());
+
             generateXML(settings);
 
             if (verbose)
@@ -110,6 +118,22 @@ public class ConfigLoader
         return favoriteButtons.getList();
     }
 
+    public Collection<HighlightRuleEntry> getHighlightRules()
+    {
+        return highlightRules.getList();
+    }
+
+    // Compiled from the highlight rules on every load
+    public HighlightMatcher getHighlighter()
+    {
+        return highlighter;
+    }
+
+    public ConsoleSettings getConsoleSettings()
+    {
+        return console;
+    }
+
     private boolean generateXML(final File file)
     {
         try
@@ -122,6 +146,8 @@ public class ConfigLoader
             rootElement.appendChild(this.servers.listToXML(doc));
             rootElement.appendChild(this.playerCommands.listToXML(doc));
             rootElement.appendChild(this.favoriteButtons.listToXML(doc));
+            rootElement.appendChild(this.highlightRules.listToXML(doc));
+            rootElement.appendChild(this.console.toXML(doc));
 
             final Transformer transformer = TransformerFactory.newInstance().newTransformer();
             transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
@@ -165,6 +191,15 @@ public class ConfigLoader
                 System.out.println("Error favorite buttons.");
                 hadErrors = true;
             }
+
+            // Settings files from before highlight rules existed simply have none
+            if (!this.highlightRules.listFromXML(doc))
+            {
+                this.highlightRules.getList().clear();
+            }
+
+            // Missing settings keep their defaults
+            this.console = (ConsoleSettings) new ConsoleSettings().fromXML(doc);
         }
         catch (IOException | ParserConfigurationException | SAXException ex)
         {
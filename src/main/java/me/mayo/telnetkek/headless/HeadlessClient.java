@@ -0,0 +1,302 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import me.mayo.telnetkek.ConnectionManager;
+import me.mayo.telnetkek.ServerEntry;
+import me.mayo.telnetkek.TelnetKek;
+
+public class HeadlessClient
+{
+
+    private static final long FLUSH_INTERVAL_MILLIS = 1000L;
+
+    private final List<String> servers = new ArrayList<>();
+    private final List<LineSink> sinks = new ArrayList<>();
+    private final List<ConnectionManager> sessions = new ArrayList<>();
+    private String logFile = null;
+    private boolean stdout = false;
+    private boolean reconnect = false;
+    private String recordFile = null;
+    private String replayFile = null;
+    private double replaySpeed = 0;
+
+    public static void main(final String args[])
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        TelnetKek.config.load(true);
+
+        final HeadlessClient client = new HeadlessClient();
+        if (!client.parseArguments(args))
+        {
+            printUsage();
+            System.exit(1);
+        }
+
+        try
+        {
+            if (client.replayFile != null)
+            {
+                client.replay();
+                System.exit(0);
+            }
+
+            client.run();
+        }
+        catch (IOException ex)
+        {
+            TelnetKek.LOGGER.log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+        catch (InterruptedException ex)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage()
+    {
+        System.err.println("Usage: --headless [--server <name|host[:port]>]... [--log <file>] [--stdout] [--reconnect] [--record <file>]");
+        System.err.println("       --headless --replay <file> [--speed <n>] [--log <file>] [--stdout]");
+    }
+
+    private boolean parseArguments(final String args[])
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "--headless":
+                {
+                    break;
+                }
+                case "--server":
+                {
+                    if (++i >= args.length)
+                    {
+                        return false;
+                    }
+                    this.servers.add(args[i]);
+                    break;
+                }
+                case "--log":
+                {
+                    if (++i >= args.length)
+                    {
+                        return false;
+                    }
+                    this.logFile = args[i];
+                    break;
+                }
+                case "--stdout":
+                {
+                    this.stdout = true;
+                    break;
+                }
+                case "--reconnect":
+                {
+                    this.reconnect = true;
+                    break;
+                }
+                case "--record":
+                {
+                    if (++i >= args.length)
+                    {
+                        return false;
+                    }
+                    this.recordFile = args[i];
+                    break;
+                }
+                case "--replay":
+                {
+                    if (++i >= args.length)
+                    {
+                        return false;
+                    }
+                    this.replayFile = args[i];
+                    break;
+                }
+                case "--speed":
+                {
+                    if (++i >= args.length)
+                    {
+                        return false;
+                    }
+                    try
+                    {
+                        this.replaySpeed = Double.parseDouble(args[i]);
+                    }
+                    catch (NumberFormatException ex)
+                    {
+                        return false;
+                    }
+                    break;
+                }
+                default:
+                {
+                    System.err.println("Unknown argument: " + args[i]);
+                    return false;
+                }
+            }
+        }
+
+        if (this.replayFile != null)
+        {
+            return this.servers.isEmpty() && this.recordFile == null;
+        }
+
+        if (this.servers.isEmpty())
+        {
+            TelnetKek.config.getServers().stream().filter(ServerEntry::isLastUsed).findFirst().ifPresent((serverEntry)
+                    -> 
+                    {
+                        this.servers.add(serverEntry.getName());
+            });
+        }
+
+        if (this.servers.isEmpty())
+        {
+            System.err.println("No server given and no last used server configured.");
+            return false;
+        }
+
+        return true;
+    }
+
+    private void openSinks() throws IOException
+    {
+        if (this.logFile != null)
+        {
+            this.sinks.add(PrintStreamSink.toFile(this.logFile));
+        }
+        if (this.stdout || this.logFile == null)
+        {
+            this.sinks.add(new PrintStreamSink(System.out, false));
+        }
+    }
+
+    private void replay() throws IOException, InterruptedException
+    {
+        openSinks();
+
+        final File file = new File(this.replayFile);
+        final ConnectionManager session = TelnetKek.sessionManager.createSession(new HeadlessSession(file.getName(), this.sinks));
+        try
+        {
+            // Also printed to stderr so it stays readable when the lines themselves go to stdout
+            System.err.println(session.replay(file, this.replaySpeed));
+            System.err.println(session.getStatsSnapshot());
+        }
+        finally
+        {
+            for (final LineSink sink : this.sinks)
+            {
+                sink.close();
+            }
+        }
+    }
+
+    private void run() throws IOException
+    {
+        openSinks();
+
+        for (int i = 0; i < this.servers.size(); i++)
+        {
+            final ServerEntry entry = findServer(this.servers.get(i));
+
+            final ConnectionManager session = TelnetKek.sessionManager.createSession(new HeadlessSession(entry.getName(), this.sinks));
+            this.sessions.add(session);
+            if (this.recordFile != null)
+            {
+                session.startCapture(new File(this.servers.size() == 1 ? this.recordFile : this.recordFile + "." + (i + 1)));
+            }
+            session.triggerConnect(entry);
+        }
+
+        TelnetKek.sessionManager.getScheduler().scheduleWithFixedDelay(this::flushSinks, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "TelnetKek-Shutdown"));
+
+        final CountDownLatch forever = new CountDownLatch(1);
+        try
+        {
+            forever.await();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Entries are copied so that --reconnect doesn't end up in the saved config
+    private ServerEntry findServer(final String server)
+    {
+        ServerEntry found = null;
+        for (final ServerEntry serverEntry : TelnetKek.config.getServers())
+        {
+            if (serverEntry.getName().equalsIgnoreCase(server) || serverEntry.getAddress().equalsIgnoreCase(server))
+            {
+                found = serverEntry;
+                break;
+            }
+        }
+
+        final ServerEntry entry = found != null ? new ServerEntry(found.getName(), found.getAddress()) : new ServerEntry(server, server);
+        if (found != null)
+        {
+            entry.setCharset(found.getCharset());
+            entry.setAutoReconnect(found.isAutoReconnect());
+        }
+        if (this.reconnect)
+        {
+            entry.setAutoReconnect(true);
+        }
+        return entry;
+    }
+
+    private void flushSinks()
+    {
+        for (final LineSink sink : this.sinks)
+        {
+            sink.flush();
+        }
+    }
+
+    private void shutdown()
+    {
+        for (final ConnectionManager session : this.sessions)
+        {
+            session.triggerDisconnect();
+            session.stopCapture();
+        }
+
+        for (final LineSink sink : this.sinks)
+        {
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.headless;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import me.mayo.telnetkek.ConnectionManager;
+import me.mayo.telnetkek.ConsoleMessage;
+import me.mayo.telnetkek.SessionView;
+import me.mayo.telnetkek.TelnetMessage;
+import me.mayo.telnetkek.player.PlayerInfo;
+import org.apache.commons.lang3.StringUtils;
+
+public class HeadlessSession implements SessionView
+{
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final String name;
+    private final List<LineSink> sinks;
+    private final List<PlayerInfo> playerList = new ArrayList<>();
+    private final Set<String> lastPlayerNames = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    public HeadlessSession(final String name, final List<LineSink> sinks)
+    {
+        this.name = name;
+        this.sinks = sinks;
+    }
+
+    @Override
+    public void writeToConsole(final ConsoleMessage message)
+    {
+        if (message.getMessage().isEmpty())
+        {
+            return;
+        }
+
+        String type = "-";
+        long receivedMillis = System.currentTimeMillis();
+        if (message instanceof TelnetMessage)
+        {
+            final TelnetMessage telnetMessage = (TelnetMessage) message;
+            if (telnetMessage.skip())
+            {
+                return;
+            }
+            if (telnetMessage.getCategory() != null)
+            {
+                type = telnetMessage.getCategory();
+            }
+            receivedMillis = telnetMessage.getParsed().getReceivedMillis();
+        }
+
+        final String line = LocalDateTime.ofInstant(Instant.ofEpochMilli(receivedMillis), ZoneId.systemDefault()).format(TIME_FORMAT) + " [" + this.name + "] [" + type + "] " + message.getMessage();
+        for (final LineSink sink : this.sinks)
+        {
+            sink.write(line);
+        }
+    }
+
+    @Override
+    public List<PlayerInfo> getPlayerList()
+    {
+        return this.playerList;
+    }
+
+    // Called on the console consumer like every other line, so only joins and leaves are logged
+    @Override
+    public void updatePlayerList(final List<PlayerInfo> players)
+    {
+        this.playerList.clear();
+        this.playerList.addAll(players);
+
+        final Set<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (final PlayerInfo player : this.playerList)
+        {
+            names.add(player.getName());
+        }
+
+        final List<String> joined = new ArrayList<>();
+        for (final String player : names)
+        {
+            if (!this.lastPlayerNames.contains(player))
+            {
+                joined.add(player);
+            }
+        }
+
+        final List<String> left = new ArrayList<>();
+        for (final String player : this.lastPlayerNames)
+        {
+            if (!names.contains(player))
+            {
+                left.add(player);
+            }
+        }
+
+        if (!joined.isEmpty())
+        {
+            writeToConsole(new ConsoleMessage("Players joined: " + StringUtils.join(joined, ", ") + " (" + names.size() + " online)"));
+        }
+        if (!left.isEmpty())
+        {
+            writeToConsole(new ConsoleMessage("Players left: " + StringUtils.join(left, ", ") + " (" + names.size() + " online)"));
+        }
+
+        this.lastPlayerNames.clear();
+        this.lastPlayerNames.addAll(names);
+    }
+
+    @Override
+    public boolean repeatLine(final ConsoleMessage original, final long receivedMillis)
+    {
+        // Logs keep every line
+        return false;
+    }
+
+    @Override
+    public void setPlayerListStale(final boolean playerListStale)
+    {
+    }
+
+    @Override
+    public void connectionStateChanged(final ConnectionManager connection)
+    {
+    }
+
+    public String getName()
+    {
+        return this.name;
+    }
+}
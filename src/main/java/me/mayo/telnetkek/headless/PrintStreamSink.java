@@ -0,0 +1,69 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.headless;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+public class PrintStreamSink implements LineSink
+{
+
+    private final PrintStream out;
+    private final boolean closeStream;
+
+    public PrintStreamSink(final PrintStream out, final boolean closeStream)
+    {
+        this.out = out;
+        this.closeStream = closeStream;
+    }
+
+    public static PrintStreamSink toFile(final String fileName) throws FileNotFoundException, UnsupportedEncodingException
+    {
+        return new PrintStreamSink(new PrintStream(new BufferedOutputStream(new FileOutputStream(fileName, true), 65536), false, "UTF-8"), true);
+    }
+
+    // Sessions share sinks, so writes are serialized here; flushing is left to the periodic flush
+    @Override
+    public synchronized void write(final String line)
+    {
+        this.out.println(line);
+    }
+
+    @Override
+    public synchronized void flush()
+    {
+        this.out.flush();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (this.closeStream)
+        {
+            this.out.close();
+        }
+        else
+        {
+            this.out.flush();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.highlight;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import me.mayo.telnetkek.TelnetKek;
+
+// Literal rules share one Aho-Corasick automaton, so a line is scanned once no matter how many rules there are
+public final class HighlightMatcher
+{
+
+    public static final HighlightMatcher EMPTY = new HighlightMatcher(Collections.emptyList());
+
+    private final List<HighlightRule> rules;
+    private final HighlightRule[] literalRules;
+    private final HighlightRule[] regexRules;
+    private final int words;
+
+    private final int[] asciiClasses = new int[128];
+    private final char[] otherChars;
+    private final int[] otherClasses;
+    private final int classCount;
+    private final int[] transitions;
+    private final int[][] outputs;
+
+    private HighlightMatcher(final List<HighlightRule> rules)
+    {
+        this.rules = Collections.unmodifiableList(rules);
+        this.words = (rules.size() + 63) >>> 6;
+
+        final List<HighlightRule> literals = new ArrayList<>();
+        final List<HighlightRule> regexes = new ArrayList<>();
+        for (final HighlightRule rule : rules)
+        {
+            if (rule.getPattern() != null)
+            {
+                regexes.add(rule);
+            }
+            else
+            {
+                literals.add(rule);
+            }
+        }
+        this.literalRules = literals.toArray(new HighlightRule[literals.size()]);
+        this.regexRules = regexes.toArray(new HighlightRule[regexes.size()]);
+
+        // Only characters that occur in some literal get their own class, everything else shares class 0
+        final TreeSet<Character> alphabet = new TreeSet<>();
+        for (final HighlightRule rule : this.literalRules)
+        {
+            for (int i = 0; i < rule.getMatch().length(); i++)
+            {
+                alphabet.add(fold(rule.getMatch().charAt(i)));
+            }
+        }
+
+        final List<Character> others = new ArrayList<>();
+        int nextClass = 1;
+        for (final char c : alphabet)
+        {
+            if (c < 128)
+            {
+                this.asciiClasses[c] = nextClass++;
+            }
+            else
+            {
+                others.add(c);
+            }
+        }
+        this.otherChars = new char[others.size()];
+        this.otherClasses = new int[others.size()];
+        for (int i = 0; i < others.size(); i++)
+        {
+            this.otherChars[i] = others.get(i);
+            this.otherClasses[i] = nextClass++;
+        }
+        this.classCount = nextClass;
+
+        // Build the trie, then turn it into a full transition table along the failure links
+        final List<Map<Integer, Integer>> trie = new ArrayList<>();
+        final List<List<Integer>> trieOutputs = new ArrayList<>();
+        trie.add(new HashMap<>());
+        trieOutputs.add(new ArrayList<>());
+        for (int r = 0; r < this.literalRules.length; r++)
+        {
+            int state = 0;
+            final String match = this.literalRules[r].getMatch();
+            for (int i = 0; i < match.length(); i++)
+            {
+                final int c = classOf(fold(match.charAt(i)));
+                Integer next = trie.get(state).get(c);
+                if (next == null)
+                {
+                    next = trie.size();
+                    trie.get(state).put(c, next);
+                    trie.add(new HashMap<>());
+                    trieOutputs.add(new ArrayList<>());
+                }
+                state = next;
+            }
+            trieOutputs.get(state).add(r);
+        }
+
+        final int states = trie.size();
+        this.transitions = new int[states * this.classCount];
+        this.outputs = new int[states][];
+        final int[] fail = new int[states];
+        final Queue<Integer> queue = new ArrayDeque<>();
+
+        for (int c = 0; c < this.classCount; c++)
+        {
+            final Integer next = trie.get(0).get(c);
+            if (next != null)
+            {
+                this.transitions[c] = next;
+                queue.add(next);
+            }
+        }
+
+        while (!queue.isEmpty())
+        {
+            final int state = queue.poll();
+            trieOutputs.get(state).addAll(trieOutputs.get(fail[state]));
+
+            for (int c = 0; c < this.classCount; c++)
+            {
+                final Integer next = trie.get(state).get(c);
+                if (next != null)
+                {
+                    fail[next] = this.transitions[fail[state] * this.classCount + c];
+                    this.transitions[state * this.classCount + c] = next;
+                    queue.add(next);
+                }
+                else
+                {
+                    this.transitions[state * this.classCount + c] = this.transitions[fail[state] * this.classCount + c];
+                }
+            }
+        }
+
+        for (int state = 0; state < states; state++)
+        {
+            final List<Integer> output = trieOutputs.get(state);
+            if (!output.isEmpty())
+            {
+                this.outputs[state] = output.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+            }
+        }
+    }
+
+    // Rules that fail to compile are logged and left out
+    public static HighlightMatcher compile(final Collection<HighlightRuleEntry> entries)
+    {
+        final List<HighlightRule> rules = new ArrayList<>();
+        for (final HighlightRuleEntry entry : entries)
+        {
+            if (entry.getMatch() == null || entry.getMatch().isEmpty())
+            {
+                continue;
+            }
+
+            try
+            {
+                rules.add(new HighlightRule(rules.size(), entry));
+            }
+            catch (IllegalArgumentException ex)
+            {
+                TelnetKek.LOGGER.log(Level.WARNING, "Ignoring highlight rule " + entry.getName() + ": " + ex.getMessage());
+            }
+        }
+
+        return rules.isEmpty() ? EMPTY : new HighlightMatcher(rules);
+    }
+
+    public List<HighlightRule> getRules()
+    {
+        return this.rules;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.rules.isEmpty();
+    }
+
+    // Counts a hit for every rule found in text[start, end) and returns the first one in config order, or null
+    public HighlightRule match(final String text, final int start, final int end)
+    {
+        return match(text, start, end, true);
+    }
+
+    // For lines that were already counted against an earlier rule list
+    public HighlightRule rematch(final String text, final int start, final int end)
+    {
+        return match(text, start, end, false);
+    }
+
+    private HighlightRule match(final String text, final int start, final int end, final boolean countHits)
+    {
+        if (this.rules.isEmpty())
+        {
+            return null;
+        }
+
+        HighlightRule best = null;
+        long[] matched = null;
+
+        if (this.literalRules.length > 0)
+        {
+            int state = 0;
+            for (int i = start; i < end; i++)
+            {
+                state = this.transitions[state * this.classCount + classOf(fold(text.charAt(i)))];
+
+                final int[] output = this.outputs[state];
+                if (output == null)
+                {
+                    continue;
+                }
+
+                for (final int r : output)
+                {
+                    final HighlightRule rule = this.literalRules[r];
+                    if (!verify(rule, text, i + 1 - rule.getMatch().length(), i + 1, start, end))
+                    {
+                        continue;
+                    }
+
+                    if (matched == null)
+                    {
+                        matched = new long[this.words];
+                    }
+                    if (mark(matched, rule, countHits))
+                    {
+                        best = best == null || rule.getIndex() < best.getIndex() ? rule : best;
+                    }
+                }
+            }
+        }
+
+        for (final HighlightRule rule : this.regexRules)
+        {
+            final Matcher matcher = rule.getPattern().matcher(text);
+            matcher.region(start, end);
+            if (matcher.find())
+            {
+                if (matched == null)
+                {
+                    matched = new long[this.words];
+                }
+                if (mark(matched, rule, countHits))
+                {
+                    best = best == null || rule.getIndex() < best.getIndex() ? rule : best;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    private static boolean mark(final long[] matched, final HighlightRule rule, final boolean countHits)
+    {
+        final int word = rule.getIndex() >>> 6;
+        final long bit = 1L << rule.getIndex();
+        if ((matched[word] & bit) != 0)
+        {
+            return false;
+        }
+
+        matched[word] |= bit;
+        if (countHits)
+        {
+            rule.hit();
+        }
+        return true;
+    }
+
+    private static boolean verify(final HighlightRule rule, final String text, final int from, final int to, final int start, final int end)
+    {
+        // The automaton works on folded characters, case sensitive rules need an exact comparison
+        if (!rule.isIgnoreCase() && !text.regionMatches(from, rule.getMatch(), 0, rule.getMatch().length()))
+        {
+            return false;
+        }
+
+        return !rule.isWholeWord() || (isBoundary(text, from - 1, start, end) && isBoundary(text, to, start, end));
+    }
+
+    private static boolean isBoundary(final String text, final int index, final int start, final int end)
+    {
+        if (index < start || index >= end)
+        {
+            return true;
+        }
+
+        final char c = text.charAt(index);
+        return !Character.isLetterOrDigit(c) && c != '_';
+    }
+
+    private int classOf(final char c)
+    {
+        if (c < 128)
+        {
+            return this.asciiClasses[c];
+        }
+
+        final int index = Arrays.binarySearch(this.otherChars, c);
+        return index < 0 ? 0 : this.otherClasses[index];
+    }
+
+    private static char fold(final char c)
+    {
+        return Character.toLowerCase(c);
+    }
+}
@@ -0,0 +1,148 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.highlight;
+
+import java.awt.Color;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+public final class HighlightRule
+{
+
+    private final int index;
+    private final String name;
+    private final String match;
+    private final boolean ignoreCase;
+    private final boolean wholeWord;
+    private final Pattern pattern;
+    private final Color color;
+    private final String category;
+    private final boolean hide;
+    private final LongAdder hits = new LongAdder();
+
+    HighlightRule(final int index, final HighlightRuleEntry entry)
+    {
+        this.index = index;
+        this.name = entry.getName() != null ? entry.getName() : entry.getMatch();
+        this.match = entry.getMatch();
+        this.ignoreCase = entry.isIgnoreCase();
+        this.wholeWord = entry.isWholeWord();
+        this.pattern = entry.isRegex() ? Pattern.compile(entry.getMatch(), entry.isIgnoreCase() ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0) : null;
+        this.color = parseColor(entry.getColor());
+        this.category = entry.getCategory();
+        this.hide = entry.isHide();
+    }
+
+    // Accepts #RRGGBB or the name of one of the java.awt.Color constants
+    static Color parseColor(final String color)
+    {
+        if (color == null || color.trim().isEmpty())
+        {
+            return null;
+        }
+
+        try
+        {
+            return Color.decode(color.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+        }
+
+        for (final Field field : Color.class.getFields())
+        {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == Color.class && field.getName().equalsIgnoreCase(color.trim()))
+            {
+                try
+                {
+                    return (Color) field.get(null);
+                }
+                catch (IllegalAccessException ex)
+                {
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown color: " + color);
+    }
+
+    public int getIndex()
+    {
+        return this.index;
+    }
+
+    String getMatch()
+    {
+        return this.match;
+    }
+
+    boolean isIgnoreCase()
+    {
+        return this.ignoreCase;
+    }
+
+    boolean isWholeWord()
+    {
+        return this.wholeWord;
+    }
+
+    Pattern getPattern()
+    {
+        return this.pattern;
+    }
+
+    void hit()
+    {
+        this.hits.increment();
+    }
+
+    public String getName()
+    {
+        return this.name;
+    }
+
+    public Color getColor()
+    {
+        return this.color;
+    }
+
+    public String getCategory()
+    {
+        return this.category;
+    }
+
+    // Lines this rule matches first are filtered out of the console
+    public boolean isHide()
+    {
+        return this.hide;
+    }
+
+    public long getHits()
+    {
+        return this.hits.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Highlight rule " + this.name + ": " + getHits() + " hits";
+    }
+}
@@ -0,0 +1,165 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.highlight;
+
+import java.util.ArrayList;
+import me.mayo.telnetkek.config.ConfigEntry;
+import me.mayo.telnetkek.config.ConfigEntryList;
+import me.mayo.telnetkek.parameter.ParameterGetter;
+import me.mayo.telnetkek.parameter.ParameterSetter;
+
+public class HighlightRuleEntry extends ConfigEntry
+{
+
+    private String name;
+    private String match;
+    private boolean ignoreCase = true;
+    private boolean wholeWord = false;
+    private boolean regex = false;
+    private String color;
+    private String category;
+    private boolean hide = false;
+
+    public HighlightRuleEntry()
+    {
+    }
+
+    @ParameterGetter(name = "name")
+    public String getName()
+    {
+        return name;
+    }
+
+    @ParameterSetter(name = "name")
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    @ParameterGetter(name = "match")
+    public String getMatch()
+    {
+        return match;
+    }
+
+    @ParameterSetter(name = "match")
+    public void setMatch(String match)
+    {
+        this.match = match;
+    }
+
+    @ParameterGetter(name = "ignoreCase")
+    public boolean isIgnoreCase()
+    {
+        return ignoreCase;
+    }
+
+    @ParameterSetter(name = "ignoreCase")
+    public void setIgnoreCase(Boolean ignoreCase)
+    {
+        this.ignoreCase = ignoreCase;
+    }
+
+    @ParameterGetter(name = "wholeWord")
+    public boolean isWholeWord()
+    {
+        return wholeWord;
+    }
+
+    @ParameterSetter(name = "wholeWord")
+    public void setWholeWord(Boolean wholeWord)
+    {
+        this.wholeWord = wholeWord;
+    }
+
+    @ParameterGetter(name = "regex")
+    public boolean isRegex()
+    {
+        return regex;
+    }
+
+    @ParameterSetter(name = "regex")
+    public void setRegex(Boolean regex)
+    {
+        this.regex = regex;
+    }
+
+    @ParameterGetter(name = "color")
+    public String getColor()
+    {
+        return color;
+    }
+
+    @ParameterSetter(name = "color")
+    public void setColor(String color)
+    {
+        this.color = color;
+    }
+
+    @ParameterGetter(name = "category")
+    public String getCategory()
+    {
+        return category;
+    }
+
+    @ParameterSetter(name = "category")
+    public void setCategory(String category)
+    {
+        this.category = category;
+    }
+
+    @ParameterGetter(name = "hide")
+    public boolean isHide()
+    {
+        return hide;
+    }
+
+    @ParameterSetter(name = "hide")
+    public void setHide(Boolean hide)
+    {
+        this.hide = hide;
+    }
+
+    public static class HighlightRuleEntryList extends ConfigEntryList<HighlightRuleEntry>
+    {
+
+        public HighlightRuleEntryList()
+        {
+            super(new ArrayList<>(), HighlightRuleEntry.class);
+        }
+
+        @Override
+        public String getParentElementName()
+        {
+            return "highlightRules";
+        }
+
+        @Override
+        public String getItemElementName()
+        {
+            return "highlightRule";
+        }
+    }
+
+    @Override
+    public String getElementName()
+    {
+        return "highlightRule";
+    }
+}
@@ -0,0 +1,128 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class CaptureReader implements Closeable
+{
+
+    private final DataInputStream in;
+    private final long startMillis;
+    private byte[] data = new byte[16384];
+    private int length;
+    private long micros = 0;
+
+    public CaptureReader(final File file) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+
+        final byte[] magic = new byte[CaptureWriter.MAGIC.length];
+        try
+        {
+            this.in.readFully(magic);
+            this.startMillis = this.in.readLong();
+        }
+        catch (EOFException ex)
+        {
+            this.in.close();
+            throw new IOException("Not a capture file: " + file);
+        }
+
+        if (!Arrays.equals(magic, CaptureWriter.MAGIC))
+        {
+            this.in.close();
+            throw new IOException("Not a capture file: " + file);
+        }
+    }
+
+    public long getStartMillis()
+    {
+        return this.startMillis;
+    }
+
+    // Advances to the next recorded read, the data array is reused
+    public boolean next() throws IOException
+    {
+        final int first = this.in.read();
+        if (first < 0)
+        {
+            return false;
+        }
+
+        try
+        {
+            this.micros += readVarint(first);
+            this.length = (int) readVarint(this.in.readUnsignedByte());
+            if (this.data.length < this.length)
+            {
+                this.data = new byte[this.length];
+            }
+            this.in.readFully(this.data, 0, this.length);
+        }
+        catch (EOFException ex)
+        {
+            // A capture cut short by a crash simply ends at the last complete read
+            return false;
+        }
+
+        return true;
+    }
+
+    public long getMicros()
+    {
+        return this.micros;
+    }
+
+    public byte[] getData()
+    {
+        return this.data;
+    }
+
+    public int getLength()
+    {
+        return this.length;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.in.close();
+    }
+
+    private long readVarint(int b) throws IOException
+    {
+        long value = 0;
+        int shift = 0;
+        while ((b & 0x80) != 0)
+        {
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+            b = this.in.readUnsignedByte();
+        }
+        return value | ((long) b << shift);
+    }
+}
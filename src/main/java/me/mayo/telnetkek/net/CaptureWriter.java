@@ -0,0 +1,203 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import me.mayo.telnetkek.TelnetKek;
+
+// Reads are copied on the selector thread and written out on a thread of their own, so the disk never stalls ingest
+public class CaptureWriter
+{
+
+    static final byte[] MAGIC =
+    {
+        'T', 'K', 'C', 'A', 'P', 1
+    };
+    // Up to 16 MB of reads at the channel's read size, anything beyond is dropped and counted
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final File file;
+    private final OutputStream out;
+    private final long startNanos = System.nanoTime();
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ExecutorService writer;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong droppedReads = new AtomicLong();
+    private final byte[] header = new byte[20];
+    private long lastMicros = 0;
+    private volatile boolean closed = false;
+
+    // Each read becomes: varint micros since the previous read, varint length, raw bytes
+    public CaptureWriter(final File file) throws IOException
+    {
+        this.file = file;
+        this.out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+        this.out.write(MAGIC);
+        writeLong(System.currentTimeMillis());
+        this.writer = Executors.newSingleThreadExecutor(task
+                -> 
+                {
+                    final Thread thread = new Thread(task, "TelnetKek-Capture");
+                    thread.setDaemon(true);
+                    return thread;
+        });
+    }
+
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    public long getBytesWritten()
+    {
+        return this.bytesWritten.get();
+    }
+
+    public long getDroppedReads()
+    {
+        return this.droppedReads.get();
+    }
+
+    // Only ever called from the selector thread
+    public void record(final byte[] data, final int offset, final int length)
+    {
+        if (this.closed)
+        {
+            return;
+        }
+
+        // Timed here, so a backed up writer doesn't skew the recording
+        final long micros = (System.nanoTime() - this.startNanos) / 1000L;
+        int headerLength = putVarint(this.header, 0, micros - this.lastMicros);
+        headerLength = putVarint(this.header, headerLength, length);
+
+        final byte[] entry = new byte[headerLength + length];
+        System.arraycopy(this.header, 0, entry, 0, headerLength);
+        System.arraycopy(data, offset, entry, headerLength, length);
+
+        if (!this.queue.offer(entry))
+        {
+            this.droppedReads.incrementAndGet();
+            return;
+        }
+        this.lastMicros = micros;
+
+        if (this.drainScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                this.writer.execute(this::drain);
+            }
+            catch (RejectedExecutionException ex)
+            {
+                // Closed while this read was being queued, it missed the final drain
+                this.droppedReads.incrementAndGet();
+            }
+        }
+    }
+
+    public void close()
+    {
+        if (this.closed)
+        {
+            return;
+        }
+        this.closed = true;
+
+        this.writer.execute(()
+                -> 
+                {
+                    drain();
+                    try
+                    {
+                        this.out.close();
+                    }
+                    catch (IOException ex)
+                    {
+                        TelnetKek.LOGGER.log(Level.SEVERE, null, ex);
+                    }
+        });
+        this.writer.shutdown();
+
+        try
+        {
+            this.writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain()
+    {
+        this.drainScheduled.set(false);
+
+        byte[] entry;
+        while ((entry = this.queue.poll()) != null)
+        {
+            try
+            {
+                this.out.write(entry);
+                this.bytesWritten.addAndGet(entry.length);
+            }
+            catch (IOException ex)
+            {
+                TelnetKek.LOGGER.log(Level.SEVERE, "Capture to " + this.file + " failed", ex);
+                this.closed = true;
+                this.queue.clear();
+                return;
+            }
+        }
+    }
+
+    private void writeLong(final long value) throws IOException
+    {
+        for (int shift = 56; shift >= 0; shift -= 8)
+        {
+            this.out.write((int) (value >>> shift));
+        }
+    }
+
+    private static int putVarint(final byte[] buffer, int position, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+}
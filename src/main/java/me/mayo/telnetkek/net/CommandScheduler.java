@@ -0,0 +1,204 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class CommandScheduler
+{
+
+    public static final double DEFAULT_RATE = 10.0;
+    public static final int DEFAULT_BURST = 20;
+
+    private final ScheduledExecutorService executor;
+    private final Sender sender;
+    // Iterated in Lane order, so urgent commands always leave first
+    private final Map<Lane, Deque<Command>> lanes = new EnumMap<>(Lane.class);
+    // Held while sending, so commands leave in order without the scheduler lock held over console output
+    private final Object sendLock = new Object();
+    private double rate = DEFAULT_RATE;
+    private int burst = DEFAULT_BURST;
+    private double tokens = DEFAULT_BURST;
+    private long lastRefill = System.nanoTime();
+    private ScheduledFuture<?> pump;
+    private volatile int generation = 0;
+
+    public CommandScheduler(final ScheduledExecutorService executor, final Sender sender)
+    {
+        this.executor = executor;
+        this.sender = sender;
+        for (final Lane lane : Lane.values())
+        {
+            this.lanes.put(lane, new ArrayDeque<>());
+        }
+    }
+
+    public synchronized void setRateLimit(final double rate, final int burst)
+    {
+        refill();
+        this.rate = rate;
+        this.burst = burst;
+        this.tokens = Math.min(this.tokens, burst);
+    }
+
+    public void submit(final String text, final boolean verbose, final long delayMillis, final Lane lane)
+    {
+        final Command command = new Command(text, verbose, lane);
+
+        if (delayMillis <= 0)
+        {
+            enqueue(command, this.generation);
+            return;
+        }
+
+        final int _generation = this.generation;
+        this.executor.schedule(() -> enqueue(command, _generation), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized int getQueuedCount()
+    {
+        int count = 0;
+        for (final Deque<Command> lane : this.lanes.values())
+        {
+            count += lane.size();
+        }
+        return count;
+    }
+
+    public synchronized void cancelAll()
+    {
+        // Delayed commands still fire, but find a newer generation and drop themselves
+        this.generation++;
+
+        for (final Deque<Command> lane : this.lanes.values())
+        {
+            lane.clear();
+        }
+
+        if (this.pump != null)
+        {
+            this.pump.cancel(false);
+            this.pump = null;
+        }
+    }
+
+    private synchronized void enqueue(final Command command, final int _generation)
+    {
+        if (_generation != this.generation)
+        {
+            return;
+        }
+
+        this.lanes.get(command.lane).add(command);
+
+        // A pump waiting for tokens would hold an urgent command back behind the normal lane
+        if (command.lane == Lane.URGENT && this.pump != null)
+        {
+            this.pump.cancel(false);
+            this.pump = null;
+        }
+        schedulePump(0);
+    }
+
+    private void schedulePump(final long delayNanos)
+    {
+        if (this.pump == null)
+        {
+            this.pump = this.executor.schedule(this::pump, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void pump()
+    {
+        synchronized (this.sendLock)
+        {
+            for (final Command command : takeSendable())
+            {
+                this.sender.send(command.text, command.verbose);
+            }
+        }
+    }
+
+    private synchronized List<Command> takeSendable()
+    {
+        this.pump = null;
+        refill();
+
+        final List<Command> sendable = new ArrayList<>();
+        for (final Deque<Command> lane : this.lanes.values())
+        {
+            Command command;
+            while ((command = lane.peek()) != null)
+            {
+                // Urgent commands never wait for the bucket, they only borrow from it
+                if (this.tokens < 1.0 && command.lane != Lane.URGENT)
+                {
+                    schedulePump((long) ((1.0 - this.tokens) / this.rate * TimeUnit.SECONDS.toNanos(1)));
+                    return sendable;
+                }
+
+                lane.poll();
+                this.tokens = Math.max(this.tokens - 1.0, -this.burst);
+                sendable.add(command);
+            }
+        }
+        return sendable;
+    }
+
+    private void refill()
+    {
+        final long now = System.nanoTime();
+        this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefill) * this.rate / TimeUnit.SECONDS.toNanos(1));
+        this.lastRefill = now;
+    }
+
+    public static enum Lane
+    {
+        URGENT, NORMAL;
+    }
+
+    private static class Command
+    {
+
+        private final String text;
+        private final boolean verbose;
+        private final Lane lane;
+
+        private Command(final String text, final boolean verbose, final Lane lane)
+        {
+            this.text = text;
+            this.verbose = verbose;
+            this.lane = lane;
+        }
+    }
+
+    public static interface Sender
+    {
+
+        public void send(String text, boolean verbose);
+    }
+}
@@ -0,0 +1,162 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import me.mayo.telnetkek.TelnetKek;
+
+public class CommandWriter
+{
+
+    public static final int DEFAULT_CAPACITY = 256;
+    private static final byte[] LINE_END =
+    {
+        '\r', '\n'
+    };
+
+    private final BlockingQueue<String> queue;
+    private final int capacity;
+    private final CharsetEncoder encoder;
+    private final Runnable flushTrigger;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicLong rejected = new AtomicLong();
+    private long written = 0;
+    private long flushes = 0;
+
+    public CommandWriter(final Charset charset, final int capacity, final Runnable flushTrigger)
+    {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.flushTrigger = flushTrigger;
+    }
+
+    public boolean offer(final String command)
+    {
+        if (!this.queue.offer(command))
+        {
+            this.rejected.incrementAndGet();
+            return false;
+        }
+
+        // Everything queued before the flush runs goes out in the same write
+        if (this.flushScheduled.compareAndSet(false, true))
+        {
+            this.flushTrigger.run();
+        }
+
+        return true;
+    }
+
+    public int getQueueDepth()
+    {
+        return this.queue.size();
+    }
+
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+
+    public boolean isBackpressured()
+    {
+        return this.queue.remainingCapacity() < this.capacity / 4;
+    }
+
+    public long getRejectedCount()
+    {
+        return this.rejected.get();
+    }
+
+    public long getWrittenCount()
+    {
+        return this.written;
+    }
+
+    public long getFlushCount()
+    {
+        return this.flushes;
+    }
+
+    // Selector thread only. Returns true if commands are left over because the buffer filled up.
+    boolean drainTo(final ByteBuffer buffer)
+    {
+        this.flushScheduled.set(false);
+
+        boolean encodedAny = false;
+        String command;
+        while ((command = this.queue.peek()) != null)
+        {
+            final int mark = buffer.position();
+
+            if (!encode(command, buffer))
+            {
+                buffer.position(mark);
+
+                if (mark != 0)
+                {
+                    break;
+                }
+
+                TelnetKek.LOGGER.log(Level.WARNING, "Dropping outbound command longer than the write buffer");
+            }
+            else
+            {
+                encodedAny = true;
+                this.written++;
+            }
+
+            this.queue.poll();
+        }
+
+        if (encodedAny)
+        {
+            this.flushes++;
+        }
+
+        return !this.queue.isEmpty();
+    }
+
+    private boolean encode(final String command, final ByteBuffer buffer)
+    {
+        this.encoder.reset();
+
+        if (this.encoder.encode(CharBuffer.wrap(command), buffer, true) != CoderResult.UNDERFLOW
+                || this.encoder.flush(buffer) != CoderResult.UNDERFLOW
+                || buffer.remaining() < LINE_END.length)
+        {
+            return false;
+        }
+
+        buffer.put(LINE_END);
+        return true;
+    }
+}
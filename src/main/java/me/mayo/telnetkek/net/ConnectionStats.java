@@ -0,0 +1,281 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Striped counters only, the selector and processing threads never take a lock to record
+public class ConnectionStats
+{
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder lineBytes = new LongAdder();
+    private final LongAccumulator maxLineLength = new LongAccumulator(Math::max, 0);
+    private final LogHistogram lineLengths = new LogHistogram();
+    private final LongAdder playerLists = new LongAdder();
+    private final LongAdder playerListBytes = new LongAdder();
+    private final LogHistogram playerListSizes = new LogHistogram();
+    private volatile long lastPlayerListNanos = 0;
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder classifyNanos = new LongAdder();
+    private final LongAdder dispatchNanos = new LongAdder();
+    private final LongAdder parallelBatches = new LongAdder();
+    private final LongAdder parallelLines = new LongAdder();
+    private final LongAdder repeatedLines = new LongAdder();
+    private final LongAccumulator maxOutboundQueueDepth = new LongAccumulator(Math::max, 0);
+    private volatile long connectLatencyNanos = -1;
+    private final AtomicReference<Snapshot> lastSnapshot = new AtomicReference<>();
+
+    public void bytesRead(final int count, final long nanos)
+    {
+        this.bytesIn.add(count);
+        this.readNanos.add(nanos);
+    }
+
+    public void bytesWritten(final int count)
+    {
+        this.bytesOut.add(count);
+    }
+
+    public void lineFramed(final int length)
+    {
+        this.lines.increment();
+        this.lineBytes.add(length);
+        this.maxLineLength.accumulate(length);
+        this.lineLengths.record(length);
+    }
+
+    public void playerListReceived(final int length)
+    {
+        this.playerLists.increment();
+        this.playerListBytes.add(length);
+        this.playerListSizes.record(length);
+        this.lastPlayerListNanos = System.nanoTime();
+    }
+
+    public void classified(final long nanos)
+    {
+        this.classifyNanos.add(nanos);
+    }
+
+    // A batch classified on the worker pool, the wall time also counts as classification time
+    public void parallelBatch(final int lines, final long nanos)
+    {
+        this.parallelBatches.increment();
+        this.parallelLines.add(lines);
+        this.classifyNanos.add(nanos);
+    }
+
+    // A copy of a recent line, counted up on the original instead of dispatched
+    public void repeated()
+    {
+        this.repeatedLines.increment();
+    }
+
+    public void dispatched(final long nanos)
+    {
+        this.dispatchNanos.add(nanos);
+    }
+
+    public void outboundQueued(final int depth)
+    {
+        this.maxOutboundQueueDepth.accumulate(depth);
+    }
+
+    public void connected(final long latencyNanos)
+    {
+        this.connectLatencyNanos = latencyNanos;
+    }
+
+    public LogHistogram getLineLengths()
+    {
+        return this.lineLengths;
+    }
+
+    public LogHistogram getPlayerListSizes()
+    {
+        return this.playerListSizes;
+    }
+
+    // Rates are measured against the previous snapshot, or the start of the connection for the first one
+    public Snapshot snapshot(final int outboundQueueDepth)
+    {
+        final Snapshot previous = this.lastSnapshot.get();
+        final Snapshot snapshot = new Snapshot(this, outboundQueueDepth, previous);
+        this.lastSnapshot.set(snapshot);
+        return snapshot;
+    }
+
+    public static class Snapshot
+    {
+
+        private final long takenNanos;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long lines;
+        private final double linesPerSecond;
+        private final double averageLineLength;
+        private final long maxLineLength;
+        private final long playerLists;
+        private final long playerListBytes;
+        private final double secondsSincePlayerList;
+        private final long readNanos;
+        private final long classifyNanos;
+        private final long dispatchNanos;
+        private final long parallelBatches;
+        private final long parallelLines;
+        private final long repeatedLines;
+        private final int outboundQueueDepth;
+        private final long maxOutboundQueueDepth;
+        private final long connectLatencyMillis;
+
+        private Snapshot(final ConnectionStats stats, final int outboundQueueDepth, final Snapshot previous)
+        {
+            this.takenNanos = System.nanoTime();
+            this.bytesIn = stats.bytesIn.sum();
+            this.bytesOut = stats.bytesOut.sum();
+            this.lines = stats.lines.sum();
+            this.maxLineLength = stats.maxLineLength.get();
+            this.averageLineLength = lines == 0 ? 0 : (double) stats.lineBytes.sum() / lines;
+            this.playerLists = stats.playerLists.sum();
+            this.playerListBytes = stats.playerListBytes.sum();
+            this.secondsSincePlayerList = stats.lastPlayerListNanos == 0 ? -1 : (takenNanos - stats.lastPlayerListNanos) / 1e9;
+            this.readNanos = stats.readNanos.sum();
+            this.classifyNanos = stats.classifyNanos.sum();
+            this.dispatchNanos = stats.dispatchNanos.sum();
+            this.parallelBatches = stats.parallelBatches.sum();
+            this.parallelLines = stats.parallelLines.sum();
+            this.repeatedLines = stats.repeatedLines.sum();
+            this.outboundQueueDepth = outboundQueueDepth;
+            this.maxOutboundQueueDepth = stats.maxOutboundQueueDepth.get();
+            this.connectLatencyMillis = stats.connectLatencyNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(stats.connectLatencyNanos);
+
+            final long sinceNanos = previous == null ? stats.startNanos : previous.takenNanos;
+            final long sinceLines = previous == null ? 0 : previous.lines;
+            this.linesPerSecond = takenNanos == sinceNanos ? 0 : (lines - sinceLines) * 1e9 / (takenNanos - sinceNanos);
+        }
+
+        public long getBytesIn()
+        {
+            return bytesIn;
+        }
+
+        public long getBytesOut()
+        {
+            return bytesOut;
+        }
+
+        public long getLines()
+        {
+            return lines;
+        }
+
+        public double getLinesPerSecond()
+        {
+            return linesPerSecond;
+        }
+
+        public double getAverageLineLength()
+        {
+            return averageLineLength;
+        }
+
+        public long getMaxLineLength()
+        {
+            return maxLineLength;
+        }
+
+        public long getPlayerLists()
+        {
+            return playerLists;
+        }
+
+        public double getAveragePlayerListSize()
+        {
+            return playerLists == 0 ? 0 : (double) playerListBytes / playerLists;
+        }
+
+        public double getSecondsSincePlayerList()
+        {
+            return secondsSincePlayerList;
+        }
+
+        public long getReadNanos()
+        {
+            return readNanos;
+        }
+
+        public long getClassifyNanos()
+        {
+            return classifyNanos;
+        }
+
+        public long getDispatchNanos()
+        {
+            return dispatchNanos;
+        }
+
+        public long getParallelBatches()
+        {
+            return parallelBatches;
+        }
+
+        public long getParallelLines()
+        {
+            return parallelLines;
+        }
+
+        public long getRepeatedLines()
+        {
+            return repeatedLines;
+        }
+
+        public int getOutboundQueueDepth()
+        {
+            return outboundQueueDepth;
+        }
+
+        public long getMaxOutboundQueueDepth()
+        {
+            return maxOutboundQueueDepth;
+        }
+
+        public long getConnectLatencyMillis()
+        {
+            return connectLatencyMillis;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("in %d B, out %d B, %d lines (%.1f/s, avg %.1f B, max %d B), %d player lists (avg %.0f B, last %.1fs ago), "
+                    + "read %d ms, classify %d ms (%d lines in %d parallel batches), dispatch %d ms, %d repeats, outbound queue %d (max %d), connect %d ms",
+                    bytesIn, bytesOut, lines, linesPerSecond, averageLineLength, maxLineLength,
+                    playerLists, getAveragePlayerListSize(), secondsSincePlayerList,
+                    TimeUnit.NANOSECONDS.toMillis(readNanos), TimeUnit.NANOSECONDS.toMillis(classifyNanos), parallelLines, parallelBatches, TimeUnit.NANOSECONDS.toMillis(dispatchNanos), repeatedLines,
+                    outboundQueueDepth, maxOutboundQueueDepth, connectLatencyMillis);
+        }
+    }
+}
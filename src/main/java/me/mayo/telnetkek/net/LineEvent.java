@@ -0,0 +1,127 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import me.mayo.telnetkek.player.PlayerInfo;
+
+public final class LineEvent
+{
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private RawLine line;
+    private byte[] data = new byte[INITIAL_CAPACITY];
+    private long sequence = -1;
+    private long receivedNanos;
+    private long receivedMillis;
+    private boolean endOfStream;
+    private boolean markedForConsole;
+    private List<PlayerInfo> playerList;
+
+    LineEvent(final Charset charset)
+    {
+        this.line = new RawLine(charset);
+    }
+
+    void set(final long sequence, final RawLine source, final long receivedNanos, final long receivedMillis)
+    {
+        final int length = source.length();
+        if (this.data.length < length)
+        {
+            // Slots only ever grow, so a ring that has seen the longest line stops allocating
+            this.data = new byte[Math.max(length, this.data.length << 1)];
+        }
+        source.copyTo(this.data, 0);
+
+        if (this.line.getCharset() != source.getCharset())
+        {
+            // Only happens on the first lines after reconnecting with another charset
+            this.line = new RawLine(source.getCharset());
+        }
+
+        this.line.set(this.data, 0, length, source.isAscii());
+        this.sequence = sequence;
+        this.receivedNanos = receivedNanos;
+        this.receivedMillis = receivedMillis;
+        this.endOfStream = false;
+        this.markedForConsole = false;
+        this.playerList = null;
+    }
+
+    void setEndOfStream(final long sequence, final long receivedNanos, final long receivedMillis)
+    {
+        this.line.set(this.data, 0, 0, true);
+        this.sequence = sequence;
+        this.receivedNanos = receivedNanos;
+        this.receivedMillis = receivedMillis;
+        this.endOfStream = true;
+        this.markedForConsole = false;
+        this.playerList = null;
+    }
+
+    // Only valid until the handler returns, copy the line to keep it
+    public RawLine getLine()
+    {
+        return this.line;
+    }
+
+    public long getSequence()
+    {
+        return this.sequence;
+    }
+
+    public long getReceivedNanos()
+    {
+        return this.receivedNanos;
+    }
+
+    public long getReceivedMillis()
+    {
+        return this.receivedMillis;
+    }
+
+    public boolean isEndOfStream()
+    {
+        return this.endOfStream;
+    }
+
+    // Set by a consumer for a line the console would normally leave out, only seen by consumers that depend on it
+    public void markForConsole()
+    {
+        this.markedForConsole = true;
+    }
+
+    public boolean isMarkedForConsole()
+    {
+        return this.markedForConsole;
+    }
+
+    // A player list decoded off the console consumer, which hands it to the view in order with the other lines
+    public void setPlayerList(final List<PlayerInfo> playerList)
+    {
+        this.playerList = playerList;
+    }
+
+    public List<PlayerInfo> getPlayerList()
+    {
+        return this.playerList;
+    }
+}
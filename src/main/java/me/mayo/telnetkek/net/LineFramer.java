@@ -0,0 +1,138 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.util.Arrays;
+
+public class LineFramer
+{
+
+    private final RawLine line;
+    private final Sink sink;
+    private byte[] partial = new byte[256];
+    private int partialLength = 0;
+    private int partialBits = 0;
+    private boolean lastWasCarriageReturn = false;
+
+    public LineFramer(final RawLine line, final Sink sink)
+    {
+        this.line = line;
+        this.sink = sink;
+    }
+
+    public void feed(final byte[] data, final int offset, final int length)
+    {
+        final int end = offset + length;
+        int i = offset;
+
+        // CR LF and CR NUL split across two reads
+        if (lastWasCarriageReturn && i < end)
+        {
+            if (data[i] == '\n' || data[i] == 0)
+            {
+                i++;
+            }
+            lastWasCarriageReturn = false;
+        }
+
+        int start = i;
+        int bits = 0;
+        while (i < end)
+        {
+            final byte b = data[i];
+            if (b == '\r' || b == '\n')
+            {
+                emit(data, start, i - start, bits);
+                bits = 0;
+                i++;
+
+                if (b == '\r')
+                {
+                    if (i == end)
+                    {
+                        lastWasCarriageReturn = true;
+                    }
+                    else if (data[i] == '\n' || data[i] == 0)
+                    {
+                        i++;
+                    }
+                }
+
+                start = i;
+            }
+            else
+            {
+                bits |= b;
+                i++;
+            }
+        }
+
+        if (start < end)
+        {
+            appendPartial(data, start, end - start, bits);
+        }
+    }
+
+    public void flush()
+    {
+        if (partialLength > 0)
+        {
+            emit(partial, 0, 0, 0);
+        }
+    }
+
+    private void emit(final byte[] data, final int start, final int length, final int bits)
+    {
+        if (partialLength == 0)
+        {
+            // Zero-copy: the line is handed out as a slice of the read buffer
+            line.set(data, start, length, bits >= 0);
+        }
+        else
+        {
+            if (data != partial)
+            {
+                appendPartial(data, start, length, bits);
+            }
+            line.set(partial, 0, partialLength, partialBits >= 0);
+            partialLength = 0;
+            partialBits = 0;
+        }
+
+        sink.onLine(line);
+    }
+
+    private void appendPartial(final byte[] data, final int start, final int length, final int bits)
+    {
+        if (partialLength + length > partial.length)
+        {
+            partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+        }
+
+        System.arraycopy(data, start, partial, partialLength, length);
+        partialLength += length;
+        partialBits |= bits;
+    }
+
+    public static interface Sink
+    {
+
+        public void onLine(RawLine line);
+    }
+}
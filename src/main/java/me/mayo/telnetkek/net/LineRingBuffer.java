@@ -0,0 +1,494 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import me.mayo.telnetkek.TelnetKek;
+
+public class LineRingBuffer
+{
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int MAX_BATCH = 512;
+
+    private final LineEvent[] entries;
+    private final int mask;
+    private final Charset charset;
+    private final Executor executor;
+    private final Executor producer;
+    private final Runnable backpressureChanged;
+    private final int highWaterMark;
+    private final int lowWaterMark;
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final AtomicBoolean paused = new AtomicBoolean(false);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final Object drainLock = new Object();
+    private volatile boolean drainWaiting = false;
+    private volatile int overflowSize = 0;
+
+    // Only touched by the producing thread
+    private long nextSequence = 0;
+    private long cachedMinSequence = -1;
+    private final ArrayDeque<LineEvent> overflow = new ArrayDeque<>();
+    private final ArrayDeque<LineEvent> spareEvents = new ArrayDeque<>();
+
+    // The producer executor runs on the publishing thread, lines that found the ring full are moved in there
+    public LineRingBuffer(final Charset charset, final int capacity, final Executor executor, final Executor producer, final Runnable backpressureChanged)
+    {
+        if (Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+
+        this.entries = new LineEvent[capacity];
+        for (int i = 0; i < capacity; i++)
+        {
+            this.entries[i] = new LineEvent(charset);
+        }
+        this.mask = capacity - 1;
+        this.charset = charset;
+        this.executor = executor;
+        this.producer = producer;
+        this.backpressureChanged = backpressureChanged;
+        this.highWaterMark = capacity - (capacity >> 2);
+        this.lowWaterMark = capacity >> 2;
+    }
+
+    // Consumers should be added before the first publish, a late consumer starts at the current cursor.
+    // A consumer only sees an event once all of its dependencies have handled it.
+    public Consumer addConsumer(final String name, final Handler handler, final Consumer... dependencies)
+    {
+        final Consumer consumer = new Consumer(name, handler, this.cursor.get(), dependencies);
+        this.consumers.add(consumer);
+        return consumer;
+    }
+
+    public void removeConsumer(final Consumer consumer)
+    {
+        this.consumers.remove(consumer);
+    }
+
+    public List<Consumer> getConsumers()
+    {
+        return Collections.unmodifiableList(this.consumers);
+    }
+
+    // Reading should stop while this is set, the callback fires whenever it may have changed
+    public boolean isPaused()
+    {
+        return this.paused.get() || this.overflowSize > 0;
+    }
+
+    // Lines waiting outside the ring for room, never more than the read that overran it
+    public int getOverflowSize()
+    {
+        return this.overflowSize;
+    }
+
+    public int getCapacity()
+    {
+        return this.entries.length;
+    }
+
+    public long getCursor()
+    {
+        return this.cursor.get();
+    }
+
+    // Never blocks, the publishing thread is shared by every connection
+    public void publish(final RawLine line)
+    {
+        if (!flushOverflow() || !hasRoom())
+        {
+            spill().set(-1, line, System.nanoTime(), System.currentTimeMillis());
+            return;
+        }
+
+        final long sequence = this.nextSequence++;
+        this.entries[(int) sequence & this.mask].set(sequence, line, System.nanoTime(), System.currentTimeMillis());
+        commit(sequence);
+    }
+
+    public void publishEndOfStream()
+    {
+        if (!flushOverflow() || !hasRoom())
+        {
+            spill().setEndOfStream(-1, System.nanoTime(), System.currentTimeMillis());
+            return;
+        }
+
+        final long sequence = this.nextSequence++;
+        this.entries[(int) sequence & this.mask].setEndOfStream(sequence, System.nanoTime(), System.currentTimeMillis());
+        commit(sequence);
+    }
+
+    // Blocks until every consumer has handled everything published so far, overflow included
+    public void awaitDrained() throws InterruptedException
+    {
+        long target = this.cursor.get();
+
+        synchronized (this.drainLock)
+        {
+            this.drainWaiting = true;
+            try
+            {
+                while (this.overflowSize > 0 || getMinimumSequence(target) < target)
+                {
+                    this.drainLock.wait(100);
+                    target = Math.max(target, this.cursor.get());
+                }
+            }
+            finally
+            {
+                this.drainWaiting = false;
+            }
+        }
+    }
+
+    private boolean hasRoom()
+    {
+        final long wrapPoint = this.nextSequence - this.entries.length;
+        if (wrapPoint > this.cachedMinSequence)
+        {
+            this.cachedMinSequence = getMinimumSequence(this.nextSequence - 1);
+        }
+        return wrapPoint <= this.cachedMinSequence;
+    }
+
+    // Reading is paused well before the ring fills, only a single oversized read spills over
+    private LineEvent spill()
+    {
+        final LineEvent event = this.spareEvents.isEmpty() ? new LineEvent(this.charset) : this.spareEvents.poll();
+        this.overflow.add(event);
+        this.overflowSize = this.overflow.size();
+
+        // The consumers may have resumed before the overflow was visible to them
+        if (!this.paused.get())
+        {
+            scheduleFlush();
+        }
+        return event;
+    }
+
+    private void scheduleFlush()
+    {
+        if (this.flushScheduled.compareAndSet(false, true))
+        {
+            this.producer.execute(()
+                    -> 
+                    {
+                        this.flushScheduled.set(false);
+                        if (flushOverflow())
+                        {
+                            this.backpressureChanged.run();
+                        }
+            });
+        }
+    }
+
+    // Producer thread only, true once nothing is left waiting
+    private boolean flushOverflow()
+    {
+        LineEvent event;
+        while ((event = this.overflow.peek()) != null && hasRoom())
+        {
+            this.overflow.poll();
+            final long sequence = this.nextSequence++;
+            if (event.isEndOfStream())
+            {
+                this.entries[(int) sequence & this.mask].setEndOfStream(sequence, event.getReceivedNanos(), event.getReceivedMillis());
+            }
+            else
+            {
+                this.entries[(int) sequence & this.mask].set(sequence, event.getLine(), event.getReceivedNanos(), event.getReceivedMillis());
+            }
+            this.spareEvents.add(event);
+            this.overflowSize = this.overflow.size();
+            commit(sequence);
+        }
+        return event == null;
+    }
+
+    private void commit(final long sequence)
+    {
+        this.cursor.set(sequence);
+
+        for (final Consumer consumer : this.consumers)
+        {
+            consumer.signal();
+        }
+
+        if (sequence - this.cachedMinSequence >= this.highWaterMark
+                && sequence - getMinimumSequence(sequence) >= this.highWaterMark
+                && this.paused.compareAndSet(false, true))
+        {
+            this.backpressureChanged.run();
+
+            // The consumers may have caught up before the flag was set
+            checkResume();
+        }
+    }
+
+    private void checkResume()
+    {
+        if (this.paused.get() && this.cursor.get() - getMinimumSequence(Long.MAX_VALUE) <= this.lowWaterMark
+                && this.paused.compareAndSet(true, false))
+        {
+            // Queued ahead of the callback, so reading resumes only after the overflow is in
+            if (this.overflowSize > 0)
+            {
+                scheduleFlush();
+            }
+            this.backpressureChanged.run();
+        }
+    }
+
+    private long getMinimumSequence(final long defaultSequence)
+    {
+        long minimum = defaultSequence;
+        for (final Consumer consumer : this.consumers)
+        {
+            minimum = Math.min(minimum, consumer.sequence.get());
+        }
+        return minimum;
+    }
+
+    private void consumerAdvanced(final Consumer advanced)
+    {
+        checkResume();
+
+        for (final Consumer consumer : this.consumers)
+        {
+            if (consumer.dependsOn(advanced))
+            {
+                consumer.signal();
+            }
+        }
+
+        if (this.drainWaiting)
+        {
+            synchronized (this.drainLock)
+            {
+                this.drainLock.notifyAll();
+            }
+        }
+    }
+
+    public class Consumer implements Runnable
+    {
+
+        private final String name;
+        private final Handler handler;
+        private final AtomicLong sequence;
+        private final Consumer[] dependencies;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final Batch batch = new Batch();
+        private volatile long maxLag = 0;
+
+        private Consumer(final String name, final Handler handler, final long sequence, final Consumer[] dependencies)
+        {
+            this.name = name;
+            this.handler = handler;
+            this.sequence = new AtomicLong(sequence);
+            this.dependencies = dependencies;
+        }
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+        public long getSequence()
+        {
+            return this.sequence.get();
+        }
+
+        public long getLag()
+        {
+            return LineRingBuffer.this.cursor.get() - this.sequence.get();
+        }
+
+        public long getMaxLag()
+        {
+            return this.maxLag;
+        }
+
+        private boolean dependsOn(final Consumer consumer)
+        {
+            for (final Consumer dependency : this.dependencies)
+            {
+                if (dependency == consumer)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private long getAvailable()
+        {
+            long available = LineRingBuffer.this.cursor.get();
+            for (final Consumer dependency : this.dependencies)
+            {
+                available = Math.min(available, dependency.sequence.get());
+            }
+            return available;
+        }
+
+        private void signal()
+        {
+            if (this.scheduled.compareAndSet(false, true))
+            {
+                LineRingBuffer.this.executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                final long next = this.sequence.get() + 1;
+                final long available = getAvailable();
+
+                if (next > available)
+                {
+                    this.scheduled.set(false);
+
+                    // A publish may have slipped in between the check and the reset
+                    if (getAvailable() < next || !this.scheduled.compareAndSet(false, true))
+                    {
+                        return;
+                    }
+                    continue;
+                }
+
+                if (available - this.sequence.get() > this.maxLag)
+                {
+                    this.maxLag = available - this.sequence.get();
+                }
+
+                // Hand the thread back after a batch so one busy consumer can't starve the others
+                final long end = Math.min(available, next + MAX_BATCH - 1);
+
+                if (this.handler instanceof BatchHandler)
+                {
+                    this.batch.reset(next, (int) (end - next + 1), available - next + 1);
+                    try
+                    {
+                        ((BatchHandler) this.handler).onBatchStart(this.batch);
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        TelnetKek.LOGGER.log(Level.SEVERE, "Line consumer " + this.name + " failed", ex);
+                    }
+                }
+                for (long s = next; s <= end; s++)
+                {
+                    try
+                    {
+                        this.handler.onEvent(LineRingBuffer.this.entries[(int) s & LineRingBuffer.this.mask], s == end);
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        TelnetKek.LOGGER.log(Level.SEVERE, "Line consumer " + this.name + " failed", ex);
+                    }
+                }
+
+                this.sequence.set(end);
+                consumerAdvanced(this);
+
+                if (end < available)
+                {
+                    LineRingBuffer.this.executor.execute(this);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.name + ": sequence " + getSequence() + ", lag " + getLag() + ", max lag " + getMaxLag();
+        }
+    }
+
+    // The events of a batch stay untouched by the producer until the consumer has handled all of them
+    public final class Batch
+    {
+
+        private long firstSequence;
+        private int size;
+        private long backlog;
+
+        private Batch()
+        {
+        }
+
+        private void reset(final long firstSequence, final int size, final long backlog)
+        {
+            this.firstSequence = firstSequence;
+            this.size = size;
+            this.backlog = backlog;
+        }
+
+        public long getFirstSequence()
+        {
+            return this.firstSequence;
+        }
+
+        public int size()
+        {
+            return this.size;
+        }
+
+        // Everything published but not yet handled, this batch included
+        public long getBacklog()
+        {
+            return this.backlog;
+        }
+
+        public LineEvent get(final int index)
+        {
+            return LineRingBuffer.this.entries[(int) (this.firstSequence + index) & LineRingBuffer.this.mask];
+        }
+    }
+
+    public static interface Handler
+    {
+
+        public void onEvent(LineEvent event, boolean endOfBatch);
+    }
+
+    // Gets a look at the whole batch before its events are handed over one by one
+    public static interface BatchHandler extends Handler
+    {
+
+        public void onBatchStart(Batch batch);
+    }
+}
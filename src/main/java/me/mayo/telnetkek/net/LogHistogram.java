@@ -0,0 +1,75 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Power-of-two buckets, bucket n counts values in [2^(n-1), 2^n)
+public class LogHistogram
+{
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    public void record(final long value)
+    {
+        this.buckets.incrementAndGet(value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+    }
+
+    public long getCount()
+    {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            count += this.buckets.get(i);
+        }
+        return count;
+    }
+
+    // Upper bound of the bucket holding the given percentile, 0 if nothing was recorded
+    public long getPercentile(final double percentile)
+    {
+        final long count = getCount();
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        final long target = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += this.buckets.get(i);
+            if (seen >= target)
+            {
+                return i == 0 ? 0 : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            this.buckets.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public final class RawLine
+{
+
+    private static final String ASCII_PROBE = " !\"#$%&'()*+,-./0123456789:;<=>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`abcdefghijklmnopqrstuvwxyz{|}~";
+
+    private final Charset charset;
+    private final boolean asciiCompatible;
+    private byte[] array;
+    private int offset;
+    private int length;
+    private boolean ascii;
+    private String decoded;
+
+    public RawLine(final Charset charset)
+    {
+        this(charset, Arrays.equals(ASCII_PROBE.getBytes(charset), ASCII_PROBE.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private RawLine(final Charset charset, final boolean asciiCompatible)
+    {
+        this.charset = charset;
+        this.asciiCompatible = asciiCompatible;
+    }
+
+    void set(final byte[] array, final int offset, final int length, final boolean ascii)
+    {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        this.ascii = ascii;
+        this.decoded = null;
+    }
+
+    public Charset getCharset()
+    {
+        return charset;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public boolean isAscii()
+    {
+        return ascii;
+    }
+
+    public byte byteAt(final int index)
+    {
+        return array[offset + index];
+    }
+
+    public int indexOf(final byte[] needle, final int fromIndex)
+    {
+        final int last = length - needle.length;
+
+        outer:
+        for (int i = Math.max(fromIndex, 0); i <= last; i++)
+        {
+            for (int j = 0; j < needle.length; j++)
+            {
+                if (array[offset + i + j] != needle[j])
+                {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+
+        return -1;
+    }
+
+    public boolean startsWith(final byte[] prefix)
+    {
+        if (prefix.length > length)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if (array[offset + i] != prefix[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public String toString(final int from, final int to)
+    {
+        if (ascii && asciiCompatible)
+        {
+            // Every byte is its own character, skip the charset decoder
+            return new String(array, offset + from, to - from, StandardCharsets.ISO_8859_1);
+        }
+
+        return new String(array, offset + from, to - from, charset);
+    }
+
+    // True when the bytes already are the UTF-8 encoding of the text
+    public boolean isUtf8()
+    {
+        return (ascii && asciiCompatible) || StandardCharsets.UTF_8.equals(charset);
+    }
+
+    public void copyTo(final byte[] destination, final int position)
+    {
+        System.arraycopy(array, offset, destination, position, length);
+    }
+
+    public RawLine copy()
+    {
+        final RawLine copy = new RawLine(charset, asciiCompatible);
+        copy.set(Arrays.copyOfRange(array, offset, offset + length), 0, length, ascii);
+        copy.decoded = decoded;
+        return copy;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (decoded == null)
+        {
+            decoded = toString(0, length);
+        }
+
+        return decoded;
+    }
+
+    public static byte[] ascii(final String text)
+    {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
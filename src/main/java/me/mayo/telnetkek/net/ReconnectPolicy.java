@@ -0,0 +1,62 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ReconnectPolicy
+{
+
+    public static final long DEFAULT_INITIAL_DELAY = 1000;
+    public static final long DEFAULT_MAX_DELAY = 60000;
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private int attempt = 0;
+
+    public ReconnectPolicy()
+    {
+        this(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    public ReconnectPolicy(final long initialDelay, final long maxDelay)
+    {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public synchronized long nextDelayMillis()
+    {
+        final long ceiling = Math.min(this.maxDelay, this.initialDelay << Math.min(this.attempt, 20));
+        this.attempt++;
+
+        // Half fixed, half random, so sessions dropped by the same restart don't reconnect in lockstep
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    public synchronized int getAttempt()
+    {
+        return this.attempt;
+    }
+
+    public synchronized void reset()
+    {
+        this.attempt = 0;
+    }
+}
@@ -0,0 +1,157 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.LockSupport;
+
+public class ReplayDriver
+{
+
+    private final File file;
+    private final double speed;
+    private final LineRingBuffer ring;
+    private final ConnectionStats stats;
+    private final LineFramer framer;
+    private final TelnetDecoder decoder = new TelnetDecoder((command, option)
+            -> 
+            {
+                // Nobody is listening for option replies
+    });
+    private long lines = 0;
+
+    // A speed of 0 or less replays as fast as the consumers keep up
+    public ReplayDriver(final File file, final double speed, final Charset charset, final LineRingBuffer ring, final ConnectionStats stats)
+    {
+        this.file = file;
+        this.speed = speed;
+        this.ring = ring;
+        this.stats = stats;
+        this.framer = new LineFramer(new RawLine(charset), line
+                -> 
+                {
+                    stats.lineFramed(line.length());
+                    ring.publish(line);
+                    this.lines++;
+        });
+    }
+
+    // The calling thread becomes the ring's producer, nothing else may publish until this returns
+    public Result run() throws IOException, InterruptedException
+    {
+        long bytes = 0;
+        long lastMicros = 0;
+        final long classifyStart = this.stats.snapshot(0).getClassifyNanos();
+        final long start = System.nanoTime();
+
+        try (final CaptureReader reader = new CaptureReader(this.file))
+        {
+            while (reader.next())
+            {
+                if (Thread.currentThread().isInterrupted())
+                {
+                    throw new InterruptedException();
+                }
+
+                if (this.speed > 0)
+                {
+                    final long due = start + (long) (reader.getMicros() * 1000L / this.speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0)
+                    {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+
+                final long readStart = System.nanoTime();
+                final int length = reader.getLength();
+                this.framer.feed(reader.getData(), 0, this.decoder.stripCommands(reader.getData(), length));
+                this.stats.bytesRead(length, System.nanoTime() - readStart);
+
+                bytes += length;
+                lastMicros = reader.getMicros();
+            }
+        }
+
+        this.framer.flush();
+        this.ring.publishEndOfStream();
+        this.ring.awaitDrained();
+
+        final long elapsed = System.nanoTime() - start;
+        return new Result(this.lines, bytes, elapsed, lastMicros, this.stats.snapshot(0).getClassifyNanos() - classifyStart);
+    }
+
+    public static class Result
+    {
+
+        private final long lines;
+        private final long bytes;
+        private final long elapsedNanos;
+        private final long capturedMicros;
+        private final long classifyNanos;
+
+        private Result(final long lines, final long bytes, final long elapsedNanos, final long capturedMicros, final long classifyNanos)
+        {
+            this.lines = lines;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.capturedMicros = capturedMicros;
+            this.classifyNanos = classifyNanos;
+        }
+
+        public long getLines()
+        {
+            return this.lines;
+        }
+
+        public long getBytes()
+        {
+            return this.bytes;
+        }
+
+        public long getElapsedNanos()
+        {
+            return this.elapsedNanos;
+        }
+
+        public double getLinesPerSecond()
+        {
+            return this.lines * 1e9 / Math.max(1, this.elapsedNanos);
+        }
+
+        public double getClassifyNanosPerLine()
+        {
+            return this.classifyNanos / (double) Math.max(1, this.lines);
+        }
+
+        public double getMegabytesPerSecond()
+        {
+            return this.bytes * 1e9 / Math.max(1, this.elapsedNanos) / (1024 * 1024);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Replayed %d lines (%.1f KB) in %.3f s: %.0f lines/s, %.2f MB/s, classify %.0f ns/line (capture spanned %.1f s)",
+                    this.lines, this.bytes / 1024.0, this.elapsedNanos / 1e9, getLinesPerSecond(), getMegabytesPerSecond(), getClassifyNanosPerLine(), this.capturedMicros / 1e6);
+        }
+    }
+}
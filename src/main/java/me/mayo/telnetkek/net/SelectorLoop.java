@@ -0,0 +1,115 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import me.mayo.telnetkek.TelnetKek;
+
+public class SelectorLoop implements Runnable
+{
+
+    private final String name;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile Selector selector;
+    private volatile Thread thread;
+
+    public SelectorLoop(final String name)
+    {
+        this.name = name;
+    }
+
+    public synchronized void start() throws IOException
+    {
+        if (this.thread != null)
+        {
+            return;
+        }
+
+        this.selector = Selector.open();
+        this.thread = new Thread(this, this.name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public Selector getSelector()
+    {
+        return this.selector;
+    }
+
+    public boolean inLoop()
+    {
+        return Thread.currentThread() == this.thread;
+    }
+
+    public void execute(final Runnable task)
+    {
+        this.tasks.add(task);
+
+        final Selector _selector = this.selector;
+        if (_selector != null && !inLoop())
+        {
+            _selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        while (!Thread.currentThread().isInterrupted())
+        {
+            try
+            {
+                this.selector.select();
+            }
+            catch (IOException ex)
+            {
+                TelnetKek.LOGGER.log(Level.SEVERE, null, ex);
+                break;
+            }
+
+            Runnable task;
+            while ((task = this.tasks.poll()) != null)
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException ex)
+                {
+                    TelnetKek.LOGGER.log(Level.SEVERE, null, ex);
+                }
+            }
+
+            final Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();
+            while (selectedKeys.hasNext())
+            {
+                final SelectionKey key = selectedKeys.next();
+                selectedKeys.remove();
+
+                ((TelnetChannel) key.attachment()).handleSelected(key);
+            }
+        }
+    }
+}
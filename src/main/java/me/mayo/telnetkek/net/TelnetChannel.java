@@ -0,0 +1,296 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import me.mayo.telnetkek.TelnetKek;
+
+public class TelnetChannel
+{
+
+    private static final int READ_BUFFER_SIZE = 16384;
+    private static final int WRITE_BUFFER_SIZE = 16384;
+    private static final int MAX_READS_PER_SELECT = 16;
+
+    private final SelectorLoop loop;
+    private final Listener listener;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final byte[] chunk = new byte[READ_BUFFER_SIZE];
+    private final LineFramer framer;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final CommandWriter commandWriter;
+    private final ConnectionStats stats;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean connected = false;
+    private boolean closed = false;
+    private final TelnetDecoder decoder = new TelnetDecoder(this::reply);
+    private volatile CaptureWriter capture;
+
+    public TelnetChannel(final SelectorLoop loop, final Charset charset, final ConnectionStats stats, final Listener listener)
+    {
+        this.loop = loop;
+        this.listener = listener;
+        this.stats = stats;
+        this.framer = new LineFramer(new RawLine(charset), line
+                -> 
+                {
+                    stats.lineFramed(line.length());
+                    listener.onLine(line);
+        });
+        this.commandWriter = new CommandWriter(charset, CommandWriter.DEFAULT_CAPACITY, () -> loop.execute(this::scheduledFlush));
+    }
+
+    public void connect(final InetSocketAddress address) throws IOException
+    {
+        final SocketChannel _channel = SocketChannel.open();
+        _channel.configureBlocking(false);
+        this.channel = _channel;
+
+        this.loop.execute(()
+                -> 
+                {
+                    try
+                    {
+                        if (_channel.connect(address))
+                        {
+                            this.key = _channel.register(this.loop.getSelector(), SelectionKey.OP_READ, this);
+                            this.connected = true;
+                            applyReadInterest();
+                            this.listener.onConnected();
+                        }
+                        else
+                        {
+                            this.key = _channel.register(this.loop.getSelector(), SelectionKey.OP_CONNECT, this);
+                        }
+                    }
+                    catch (IOException ex)
+                    {
+                        close(ex);
+                    }
+        });
+    }
+
+    public void disconnect()
+    {
+        this.loop.execute(() -> close(null));
+    }
+
+    public void connectTimeout()
+    {
+        this.loop.execute(()
+                -> 
+                {
+                    if (!this.connected)
+                    {
+                        close(new SocketTimeoutException("Connection timed out"));
+                    }
+        });
+    }
+
+    // Re-reads Listener.isReadPaused on the selector thread, so calls never need to be ordered
+    public void refreshReadInterest()
+    {
+        this.loop.execute(this::applyReadInterest);
+    }
+
+    // Raw inbound bytes are recorded before any telnet decoding, null stops recording
+    public void setCapture(final CaptureWriter capture)
+    {
+        this.capture = capture;
+    }
+
+    public CommandWriter getCommandWriter()
+    {
+        return this.commandWriter;
+    }
+
+    void handleSelected(final SelectionKey selectedKey)
+    {
+        try
+        {
+            if (selectedKey.isValid() && selectedKey.isConnectable())
+            {
+                this.channel.finishConnect();
+                selectedKey.interestOps(SelectionKey.OP_READ);
+                this.connected = true;
+                applyReadInterest();
+                this.listener.onConnected();
+                scheduledFlush();
+            }
+
+            if (selectedKey.isValid() && selectedKey.isReadable())
+            {
+                read();
+            }
+
+            if (selectedKey.isValid() && (selectedKey.isWritable() || this.writeBuffer.position() > 0))
+            {
+                flushWrites();
+            }
+        }
+        catch (IOException ex)
+        {
+            close(ex);
+        }
+    }
+
+    private void read() throws IOException
+    {
+        for (int i = 0; i < MAX_READS_PER_SELECT && !this.listener.isReadPaused(); i++)
+        {
+            this.readBuffer.clear();
+
+            final long start = System.nanoTime();
+            final int read = this.channel.read(this.readBuffer);
+            if (read < 0)
+            {
+                close(null);
+                return;
+            }
+            if (read == 0)
+            {
+                return;
+            }
+
+            this.readBuffer.flip();
+            this.readBuffer.get(this.chunk, 0, read);
+
+            final CaptureWriter _capture = this.capture;
+            if (_capture != null)
+            {
+                _capture.record(this.chunk, 0, read);
+            }
+
+            this.framer.feed(this.chunk, 0, this.decoder.stripCommands(this.chunk, read));
+
+            this.stats.bytesRead(read, System.nanoTime() - start);
+        }
+    }
+
+    private void reply(final int command, final int option)
+    {
+        if (this.writeBuffer.remaining() >= 3)
+        {
+            this.writeBuffer.put((byte) TelnetDecoder.IAC).put((byte) command).put((byte) option);
+        }
+    }
+
+    private void applyReadInterest()
+    {
+        if (this.closed || !this.connected || this.key == null || !this.key.isValid())
+        {
+            return;
+        }
+
+        if (this.listener.isReadPaused())
+        {
+            this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        else
+        {
+            this.key.interestOps(this.key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    private void scheduledFlush()
+    {
+        if (this.closed || this.key == null || !this.key.isValid()
+                || (this.key.interestOps() & SelectionKey.OP_CONNECT) != 0)
+        {
+            return;
+        }
+
+        try
+        {
+            flushWrites();
+        }
+        catch (IOException ex)
+        {
+            close(ex);
+        }
+    }
+
+    private void flushWrites() throws IOException
+    {
+        // Option replies from the last read plus every queued command leave in a single write
+        final boolean moreQueued = this.commandWriter.drainTo(this.writeBuffer);
+
+        this.writeBuffer.flip();
+        this.stats.bytesWritten(this.channel.write(this.writeBuffer));
+        this.writeBuffer.compact();
+
+        if (moreQueued || this.writeBuffer.position() > 0)
+        {
+            this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+        }
+        else
+        {
+            this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void close(final IOException cause)
+    {
+        if (this.closed)
+        {
+            return;
+        }
+        this.closed = true;
+
+        this.framer.flush();
+
+        if (this.key != null)
+        {
+            this.key.cancel();
+        }
+
+        try
+        {
+            this.channel.close();
+        }
+        catch (IOException ex)
+        {
+            TelnetKek.LOGGER.log(Level.SEVERE, null, ex);
+        }
+
+        this.listener.onClosed(cause);
+    }
+
+    public static interface Listener
+    {
+
+        public void onConnected();
+
+        // The line is only valid for the duration of the call, copy it to keep it
+        public void onLine(RawLine line);
+
+        public void onClosed(IOException cause);
+
+        // Consulted before every read, the listener calls refreshReadInterest when it changes
+        public boolean isReadPaused();
+    }
+}
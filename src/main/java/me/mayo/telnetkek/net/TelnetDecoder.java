@@ -0,0 +1,152 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.net;
+
+public class TelnetDecoder
+{
+
+    // RFC 854 command bytes
+    static final int IAC = 255;
+    static final int DONT = 254;
+    static final int DO = 253;
+    static final int WONT = 252;
+    static final int WILL = 251;
+    static final int SB = 250;
+    static final int SE = 240;
+
+    private static final int STATE_DATA = 0;
+    private static final int STATE_IAC = 1;
+    private static final int STATE_OPTION = 2;
+    private static final int STATE_SUBNEGOTIATION = 3;
+    private static final int STATE_SUBNEGOTIATION_IAC = 4;
+
+    private final Replier replier;
+    private int state = STATE_DATA;
+    private int optionCommand;
+
+    public TelnetDecoder(final Replier replier)
+    {
+        this.replier = replier;
+    }
+
+    // Removes every telnet command from the chunk and returns the number of data bytes left
+    public int stripCommands(final byte[] chunk, final int length)
+    {
+        if (this.state == STATE_DATA)
+        {
+            int i = 0;
+            while (i < length && chunk[i] != (byte) IAC)
+            {
+                i++;
+            }
+            if (i == length)
+            {
+                return length;
+            }
+        }
+
+        // Compact the remaining data bytes in place, the write index never passes the read index
+        int written = 0;
+        for (int i = 0; i < length; i++)
+        {
+            final int b = decode(chunk[i] & 0xFF);
+            if (b >= 0)
+            {
+                chunk[written++] = (byte) b;
+            }
+        }
+        return written;
+    }
+
+    private int decode(final int b)
+    {
+        switch (this.state)
+        {
+            case STATE_DATA:
+            {
+                if (b == IAC)
+                {
+                    this.state = STATE_IAC;
+                }
+                else
+                {
+                    return b;
+                }
+                break;
+            }
+            case STATE_IAC:
+            {
+                if (b == IAC)
+                {
+                    this.state = STATE_DATA;
+                    return b;
+                }
+                else if (b == DO || b == DONT || b == WILL || b == WONT)
+                {
+                    this.optionCommand = b;
+                    this.state = STATE_OPTION;
+                }
+                else if (b == SB)
+                {
+                    this.state = STATE_SUBNEGOTIATION;
+                }
+                else
+                {
+                    this.state = STATE_DATA;
+                }
+                break;
+            }
+            case STATE_OPTION:
+            {
+                // We don't support any options, refuse everything the server offers or requests
+                if (this.optionCommand == DO)
+                {
+                    this.replier.reply(WONT, b);
+                }
+                else if (this.optionCommand == WILL)
+                {
+                    this.replier.reply(DONT, b);
+                }
+                this.state = STATE_DATA;
+                break;
+            }
+            case STATE_SUBNEGOTIATION:
+            {
+                if (b == IAC)
+                {
+                    this.state = STATE_SUBNEGOTIATION_IAC;
+                }
+                break;
+            }
+            case STATE_SUBNEGOTIATION_IAC:
+            {
+                this.state = b == SE ? STATE_DATA : STATE_SUBNEGOTIATION;
+                break;
+            }
+        }
+
+        return -1;
+    }
+
+    public static interface Replier
+    {
+
+        public void reply(int command, int option);
+    }
+}
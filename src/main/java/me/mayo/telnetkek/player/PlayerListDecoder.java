@@ -21,53 +21,97 @@ package me.mayo.telnetkek.player;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import me.mayo.telnetkek.net.RawLine;
 import org.json.*;
 
 public class PlayerListDecoder
 {
 
     private static final Pattern PLAYER_LIST_MESSAGE = Pattern.compile(":\\[.+@BukkitTelnet\\]\\$ playerList~(.+)");
+    private static final byte[] PLAYER_LIST_MARKER = RawLine.ascii("@BukkitTelnet]$ playerList~");
+    private static final byte[] PLAYER_LIST_START = RawLine.ascii(":[");
 
     private PlayerListDecoder()
     {
         throw new AssertionError();
     }
 
+    public static final boolean isPlayerListMessage(final RawLine message)
+    {
+        return getDataStart(message) >= 0;
+    }
+
+    public static final boolean checkForPlayerListMessage(final RawLine message, final List<PlayerInfo> playerList)
+    {
+        final int dataStart = getDataStart(message);
+        if (dataStart < 0)
+        {
+            return false;
+        }
+
+        return decodePlayerList(message.toString(dataStart, message.length()), playerList);
+    }
+
+    // Same match as PLAYER_LIST_MESSAGE, but only the JSON payload is ever decoded
+    private static int getDataStart(final RawLine message)
+    {
+        final int marker = message.indexOf(PLAYER_LIST_MARKER, 0);
+        if (marker < 0)
+        {
+            return -1;
+        }
+
+        final int start = message.indexOf(PLAYER_LIST_START, 0);
+        final int dataStart = marker + PLAYER_LIST_MARKER.length;
+        if (start < 0 || start + PLAYER_LIST_START.length >= marker || dataStart >= message.length())
+        {
+            return -1;
+        }
+
+        return dataStart;
+    }
+
     public static final boolean checkForPlayerListMessage(final String message, final List<PlayerInfo> playerList)
     {
         final Matcher matcher = PLAYER_LIST_MESSAGE.matcher(message);
         if (matcher.find())
         {
-            final String data = matcher.group(1);
-            try
-            {
-                playerList.clear();
+            return decodePlayerList(matcher.group(1), playerList);
+        }
 
-                final JSONObject json = new JSONObject(data);
-                final JSONArrayIterable players = new JSONArrayIterable(json.getJSONArray("players"));
-                for (JSONObject player : players)
-                {
-                    final String name = getStringSafe(player, "name");
-                    playerList.add(new PlayerInfo(
-                            name,
-                            getStringSafe(player, "ip"),
-                            getStringSafe(player, "displayName"),
-                            getStringSafe(player, "uuid"),
-                            Boolean.valueOf(getStringSafe(player, "tfm.admin.isAdmin")),
-                            Boolean.valueOf(getStringSafe(player, "tfm.admin.isTelnetAdmin")),
-                            Boolean.valueOf(getStringSafe(player, "tfm.admin.isSeniorAdmin")),
-                            getStringSafe(player, "tfm.playerdata.getTag"),
-                            getStringSafe(player, "tfm.essentialsBridge.getNickname")
-                    ));
-                }
+        return false;
+    }
 
-                Collections.sort(playerList, PlayerInfo.getComparator());
+    private static boolean decodePlayerList(final String data, final List<PlayerInfo> playerList)
+    {
+        try
+        {
+            playerList.clear();
 
-                return true;
-            }
-            catch (JSONException ex)
+            final JSONObject json = new JSONObject(data);
+            final JSONArrayIterable players = new JSONArrayIterable(json.getJSONArray("players"));
+            for (JSONObject player : players)
             {
+                final String name = getStringSafe(player, "name");
+                playerList.add(new PlayerInfo(
+                        name,
+                        getStringSafe(player, "ip"),
+                        getStringSafe(player, "displayName"),
+                        getStringSafe(player, "uuid"),
+                        Boolean.valueOf(getStringSafe(player, "tfm.admin.isAdmin")),
+                        Boolean.valueOf(getStringSafe(player, "tfm.admin.isTelnetAdmin")),
+                        Boolean.valueOf(getStringSafe(player, "tfm.admin.isSeniorAdmin")),
+                        getStringSafe(player, "tfm.playerdata.getTag"),
+                        getStringSafe(player, "tfm.essentialsBridge.getNickname")
+                ));
             }
+
+            Collections.sort(playerList, PlayerInfo.getComparator());
+
+            return true;
+        }
+        catch (JSONException ex)
+        {
         }
 
         return false;
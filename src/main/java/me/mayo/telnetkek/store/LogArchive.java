@@ -0,0 +1,520 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.store;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import me.mayo.telnetkek.TelnetKek;
+import me.mayo.telnetkek.net.RawLine;
+
+// Keeps session output for good in deflate compressed blocks, one file per day or per rotateBytes.
+// Every block header carries the receive and server time ranges of its lines, so reading a range inflates
+// only the blocks that overlap it and skips over the rest without decompressing them.
+// File layout: MAGIC, then blocks of [int compressedLength][int rawLength][int lineCount][long firstMillis]
+// [long lastMillis][long firstServerMillis][long lastServerMillis][compressed bytes], where the raw bytes
+// hold, for each line, varint millis since firstMillis, zigzag varint server millis since the line before
+// (firstMillis for the first one), varint length and UTF-8 text.
+// Version 1 files, written before server times were kept, have neither the two server time longs nor the
+// server deltas, and are read with the receive time standing in for the server time.
+public final class LogArchive
+{
+
+    static final byte[] MAGIC =
+    {
+        'T', 'K', 'A', 'R', 'C', 2
+    };
+    private static final int VERSION_1 = 1;
+    private static final String EXTENSION = ".tka";
+    private static final int BLOCK_HEADER = 4 + 4 + 4 + 8 + 8 + 8 + 8;
+    private static final int BLOCK_BYTES = 64 * 1024;
+    // A quiet session still gets its lines on disk within this long
+    private static final long FLUSH_MILLIS = 10000;
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final File directory;
+    private final long rotateBytes;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] block = new byte[BLOCK_BYTES + 1024];
+    private int blockLength = 0;
+    private int blockLines = 0;
+    private long firstMillis;
+    private long lastMillis;
+    private long firstServerMillis;
+    private long lastServerMillis;
+    private long previousServerMillis;
+    private final ServerClock clock = new ServerClock();
+    private byte[] compressed = new byte[BLOCK_BYTES];
+    private final byte[] header = new byte[BLOCK_HEADER];
+    private OutputStream out;
+    private File file;
+    private long fileBytes = 0;
+    private long dayStartMillis;
+    private long dayEndMillis;
+    private long bytesWritten = 0;
+    private boolean closed = false;
+
+    public LogArchive(final File directory, final long rotateBytes) throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Can't create " + directory);
+        }
+        this.directory = directory;
+        this.rotateBytes = rotateBytes;
+    }
+
+    public File getDirectory()
+    {
+        return this.directory;
+    }
+
+    public synchronized long getBytesWritten()
+    {
+        return this.bytesWritten;
+    }
+
+    // Lines before the first log header are filed under their receive time as server time. The received bytes
+    // go straight into the block unless the server's charset makes them something other than UTF-8.
+    public synchronized void append(final long receivedMillis, final int serverSeconds, final RawLine line)
+    {
+        if (this.closed)
+        {
+            return;
+        }
+
+        // A file only ever holds the lines of one day, so reading a range can skip whole days by name
+        if (receivedMillis < this.dayStartMillis || receivedMillis >= this.dayEndMillis)
+        {
+            writeBlock();
+            closeFile();
+            setDay(receivedMillis);
+        }
+
+        final byte[] encoded = line.isUtf8() ? null : line.toString().getBytes(StandardCharsets.UTF_8);
+        final int length = encoded == null ? line.length() : encoded.length;
+        if (this.blockLength + length + 30 > this.block.length)
+        {
+            this.block = Arrays.copyOf(this.block, Math.max(this.block.length * 2, this.blockLength + length + 30));
+        }
+        final long clockMillis = this.clock.advance(serverSeconds, receivedMillis);
+        final long serverMillis = clockMillis < 0 ? receivedMillis : clockMillis;
+        if (this.blockLines == 0)
+        {
+            this.firstMillis = receivedMillis;
+            this.firstServerMillis = serverMillis;
+            this.lastServerMillis = serverMillis;
+            this.previousServerMillis = receivedMillis;
+        }
+        this.lastMillis = Math.max(this.lastMillis, receivedMillis);
+        this.firstServerMillis = Math.min(this.firstServerMillis, serverMillis);
+        this.lastServerMillis = Math.max(this.lastServerMillis, serverMillis);
+
+        final long serverDelta = serverMillis - this.previousServerMillis;
+        this.previousServerMillis = serverMillis;
+        this.blockLength = putVarint(this.block, this.blockLength, Math.max(0, receivedMillis - this.firstMillis));
+        this.blockLength = putVarint(this.block, this.blockLength, (serverDelta << 1) ^ (serverDelta >> 63));
+        this.blockLength = putVarint(this.block, this.blockLength, length);
+        if (encoded == null)
+        {
+            line.copyTo(this.block, this.blockLength);
+        }
+        else
+        {
+            System.arraycopy(encoded, 0, this.block, this.blockLength, length);
+        }
+        this.blockLength += length;
+        this.blockLines++;
+
+        if (this.blockLength >= BLOCK_BYTES)
+        {
+            writeBlock();
+        }
+    }
+
+    // Writes out a block that has been open for a while, called when the line consumer runs dry
+    public synchronized void flushStale()
+    {
+        if (this.blockLines > 0 && System.currentTimeMillis() - this.firstMillis >= FLUSH_MILLIS)
+        {
+            writeBlock();
+        }
+    }
+
+    public synchronized void close()
+    {
+        if (this.closed)
+        {
+            return;
+        }
+
+        writeBlock();
+        closeFile();
+        this.closed = true;
+        this.deflater.end();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("Archive: %s, %.1f MB written", this.directory, this.bytesWritten / (1024.0 * 1024.0));
+    }
+
+    // Hands every archived line received, or logged by server time, between from and to, inclusive, to the visitor in file order
+    public static void read(final File directory, final long fromMillis, final long toMillis, final boolean serverTime, final LineVisitor visitor) throws IOException
+    {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null)
+        {
+            return;
+        }
+        Arrays.sort(files);
+
+        // Files are named by receive time, which is within a day of the server time of the same line
+        final long margin = serverTime ? 24L * 60 * 60 * 1000 : 0;
+        final String fromDay = DAY_FORMAT.format(toDate(fromMillis - margin));
+        final String toDay = DAY_FORMAT.format(toDate(toMillis + margin));
+        final Inflater inflater = new Inflater();
+        try
+        {
+            for (final File archiveFile : files)
+            {
+                final String day = archiveFile.getName().substring(0, fromDay.length());
+                if (day.compareTo(fromDay) >= 0 && day.compareTo(toDay) <= 0)
+                {
+                    readFile(archiveFile, fromMillis, toMillis, serverTime, inflater, visitor);
+                }
+            }
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    private static void readFile(final File archiveFile, final long fromMillis, final long toMillis, final boolean serverTime, final Inflater inflater, final LineVisitor visitor) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(archiveFile)))
+        {
+            final byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            final int version = magic[MAGIC.length - 1];
+            if (!Arrays.equals(Arrays.copyOf(magic, MAGIC.length - 1), Arrays.copyOf(MAGIC, MAGIC.length - 1)))
+            {
+                throw new IOException("Not an archive file: " + archiveFile);
+            }
+            if (version != VERSION_1 && version != MAGIC[MAGIC.length - 1])
+            {
+                throw new IOException("Archive version " + version + " not supported: " + archiveFile);
+            }
+            final boolean hasServerTimes = version != VERSION_1;
+
+            byte[] compressed = new byte[BLOCK_BYTES];
+            byte[] raw = new byte[BLOCK_BYTES * 2];
+            while (true)
+            {
+                final int compressedLength;
+                final int rawLength;
+                final int lineCount;
+                final long first;
+                final long last;
+                final long firstServer;
+                final long lastServer;
+                try
+                {
+                    compressedLength = in.readInt();
+                    rawLength = in.readInt();
+                    lineCount = in.readInt();
+                    first = in.readLong();
+                    last = in.readLong();
+                    firstServer = hasServerTimes ? in.readLong() : first;
+                    lastServer = hasServerTimes ? in.readLong() : last;
+                }
+                catch (EOFException ex)
+                {
+                    return;
+                }
+
+                if ((serverTime ? lastServer : last) < fromMillis || (serverTime ? firstServer : first) > toMillis)
+                {
+                    skipFully(in, compressedLength);
+                    continue;
+                }
+
+                if (compressed.length < compressedLength)
+                {
+                    compressed = new byte[compressedLength];
+                }
+                if (raw.length < rawLength)
+                {
+                    raw = new byte[rawLength];
+                }
+                try
+                {
+                    in.readFully(compressed, 0, compressedLength);
+                }
+                catch (EOFException ex)
+                {
+                    // The block was still being written
+                    return;
+                }
+                inflate(inflater, compressed, compressedLength, raw, rawLength, archiveFile);
+
+                final int[] position = new int[1];
+                long serverMillis = first;
+                for (int i = 0; i < lineCount; i++)
+                {
+                    final long receivedMillis = first + readVarint(raw, position);
+                    if (hasServerTimes)
+                    {
+                        final long serverDelta = readVarint(raw, position);
+                        serverMillis += (serverDelta >>> 1) ^ -(serverDelta & 1);
+                    }
+                    else
+                    {
+                        serverMillis = receivedMillis;
+                    }
+                    final int length = (int) readVarint(raw, position);
+                    final long millis = serverTime ? serverMillis : receivedMillis;
+                    if (millis >= fromMillis && millis <= toMillis)
+                    {
+                        visitor.visit(receivedMillis, serverMillis, new String(raw, position[0], length, StandardCharsets.UTF_8));
+                    }
+                    position[0] += length;
+                }
+            }
+        }
+    }
+
+    private static void inflate(final Inflater inflater, final byte[] compressed, final int compressedLength, final byte[] raw, final int rawLength, final File archiveFile) throws IOException
+    {
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try
+        {
+            int inflated = 0;
+            while (inflated < rawLength && !inflater.finished())
+            {
+                final int count = inflater.inflate(raw, inflated, rawLength - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != rawLength)
+            {
+                throw new IOException("Corrupt block in " + archiveFile);
+            }
+        }
+        catch (DataFormatException ex)
+        {
+            throw new IOException("Corrupt block in " + archiveFile, ex);
+        }
+    }
+
+    private void writeBlock()
+    {
+        if (this.blockLines == 0)
+        {
+            return;
+        }
+
+        try
+        {
+            if (this.out == null || this.fileBytes >= this.rotateBytes)
+            {
+                closeFile();
+                openFile();
+            }
+
+            this.deflater.reset();
+            this.deflater.setInput(this.block, 0, this.blockLength);
+            this.deflater.finish();
+            int compressedLength = 0;
+            while (!this.deflater.finished())
+            {
+                if (compressedLength == this.compressed.length)
+                {
+                    this.compressed = Arrays.copyOf(this.compressed, this.compressed.length * 2);
+                }
+                compressedLength += this.deflater.deflate(this.compressed, compressedLength, this.compressed.length - compressedLength);
+            }
+
+            putInt(this.header, 0, compressedLength);
+            putInt(this.header, 4, this.blockLength);
+            putInt(this.header, 8, this.blockLines);
+            putLong(this.header, 12, this.firstMillis);
+            putLong(this.header, 20, this.lastMillis);
+            putLong(this.header, 28, this.firstServerMillis);
+            putLong(this.header, 36, this.lastServerMillis);
+            this.out.write(this.header);
+            this.out.write(this.compressed, 0, compressedLength);
+            this.out.flush();
+
+            this.fileBytes += BLOCK_HEADER + compressedLength;
+            this.bytesWritten += BLOCK_HEADER + compressedLength;
+        }
+        catch (IOException ex)
+        {
+            TelnetKek.LOGGER.log(Level.SEVERE, "Archive to " + this.directory + " failed", ex);
+            closeFile();
+        }
+
+        this.blockLength = 0;
+        this.blockLines = 0;
+        this.lastMillis = 0;
+    }
+
+    // Named after the day and time of the first block, so sorting by name sorts by time. Several sessions
+    // share the directory, so a name is only taken by creating the file, the next suffix is tried when it exists.
+    private void openFile() throws IOException
+    {
+        final String name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(this.firstMillis));
+        for (int i = 0;; i++)
+        {
+            final File next = new File(this.directory, name + (i == 0 ? "" : "-" + i) + EXTENSION);
+            try
+            {
+                this.out = Files.newOutputStream(next.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+            catch (FileAlreadyExistsException ex)
+            {
+                continue;
+            }
+            this.file = next;
+            break;
+        }
+
+        this.out.write(MAGIC);
+        this.fileBytes = MAGIC.length;
+    }
+
+    private void closeFile()
+    {
+        if (this.out == null)
+        {
+            return;
+        }
+
+        try
+        {
+            this.out.close();
+        }
+        catch (IOException ex)
+        {
+            TelnetKek.LOGGER.log(Level.SEVERE, "Closing " + this.file + " failed", ex);
+        }
+        this.out = null;
+        this.file = null;
+    }
+
+    private void setDay(final long millis)
+    {
+        final LocalDate day = toDate(millis);
+        final ZoneId zone = ZoneId.systemDefault();
+        this.dayStartMillis = day.atStartOfDay(zone).toInstant().toEpochMilli();
+        this.dayEndMillis = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    private static LocalDate toDate(final long millis)
+    {
+        return Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    private static void skipFully(final InputStream in, final long count) throws IOException
+    {
+        long remaining = count;
+        while (remaining > 0)
+        {
+            final long skipped = in.skip(remaining);
+            if (skipped <= 0)
+            {
+                return;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static void putInt(final byte[] buffer, final int position, final int value)
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            buffer[position + i] = (byte) (value >>> (24 - i * 8));
+        }
+    }
+
+    private static void putLong(final byte[] buffer, final int position, final long value)
+    {
+        for (int i = 0; i < 8; i++)
+        {
+            buffer[position + i] = (byte) (value >>> (56 - i * 8));
+        }
+    }
+
+    private static int putVarint(final byte[] buffer, int position, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static long readVarint(final byte[] buffer, final int[] position)
+    {
+        long value = 0;
+        for (int shift = 0;; shift += 7)
+        {
+            final int b = buffer[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+    }
+
+    public static interface LineVisitor
+    {
+
+        public void visit(long receivedMillis, long serverMillis, String text);
+    }
+}
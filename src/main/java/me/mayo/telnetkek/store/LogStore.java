@@ -0,0 +1,630 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.store;
+
+import java.awt.Color;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import me.mayo.telnetkek.ConsoleMessage;
+import me.mayo.telnetkek.ParsedLine;
+import me.mayo.telnetkek.TelnetMessage;
+import me.mayo.telnetkek.highlight.HighlightMatcher;
+import me.mayo.telnetkek.highlight.HighlightRule;
+
+// Every console line of a session, kept column by column in chunks of primitive arrays.
+// A line costs 25 bytes of columns and 20 to 68 bytes of search signature, growing with its length, plus
+// its text, one byte per character unless it needs UTF-8. Columns are allocated a whole chunk of 8192 lines
+// at a time, and the chunk being appended to holds a 64 KB text buffer up front that is trimmed to the text
+// once the chunk fills.
+// Holding the TelnetMessage instead costs its ParsedLine and String on top, roughly 150 bytes
+// plus two bytes per character on Java 8.
+// With a journal only the newest chunks stay in memory, older ones are read back from it when asked for.
+// One thread appends at a time, any number of threads may read the lines below size().
+public final class LogStore
+{
+
+    public static final int FLAG_TELNET = 1;
+    public static final int FLAG_ERROR = 1 << 1;
+    private static final int FLAG_LATIN1 = 1 << 2;
+    // The first line of a folded stack trace, the rest of it follows as FLAG_FOLDED lines
+    public static final int FLAG_TRACE = 1 << 3;
+    public static final int FLAG_FOLDED = 1 << 4;
+
+    private static final int CHUNK_SHIFT = 13;
+    private static final int CHUNK_LINES = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_LINES - 1;
+    private static final int MAX_COLORS = 256;
+    private static final int PAGED_CHUNKS = 8;
+    private static final int NO_SERVER_TIME = Integer.MIN_VALUE;
+
+    private final SessionJournal journal;
+    private final int retainChunks;
+    private volatile Chunk[] chunks = new Chunk[16];
+    private volatile Color[] palette = new Color[]
+    {
+        Color.BLACK
+    };
+    private volatile int size = 0;
+    private final ServerClock clock = new ServerClock();
+    private volatile long serverEpochMillis = -1;
+    // Server time of the first line of every chunk, which stays in memory when the chunk is paged out
+    private volatile int[] chunkServerTimes = new int[16];
+    private final SearchIndex searchIndex = new SearchIndex();
+    // The rule list every stored rule slot was matched against, one entry per highlight reload seen while appending
+    private volatile RuleEpoch[] ruleEpochs = new RuleEpoch[0];
+    // Chunks below this one have been considered for eviction
+    private int firstResident = 0;
+    private int evictedChunks = 0;
+    private final Map<Integer, Chunk> paged = new LinkedHashMap<Integer, Chunk>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Integer, Chunk> eldest)
+        {
+            return size() > PAGED_CHUNKS;
+        }
+    };
+
+    // Keeps every line in memory
+    public LogStore()
+    {
+        this.journal = null;
+        this.retainChunks = Integer.MAX_VALUE;
+    }
+
+    private LogStore(final SessionJournal journal, final int retainLines)
+    {
+        this.journal = journal;
+        this.retainChunks = Math.max(2, (retainLines + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+
+    // Journals into a new directory below the root once the first line arrives, lines that can't be
+    // journaled simply stay in memory
+    public static LogStore open(final File journalRoot, final int retainLines, final Executor executor)
+    {
+        return new LogStore(SessionJournal.open(journalRoot, CHUNK_SHIFT, executor), retainLines);
+    }
+
+    // Takes FLAG_ERROR, FLAG_TRACE and FLAG_FOLDED, the rest of the flags come from the line itself
+    public synchronized int append(final ConsoleMessage message, final int lineFlags)
+    {
+        final int index = this.size;
+        final int chunkIndex = index >>> CHUNK_SHIFT;
+        if (chunkIndex == this.chunks.length)
+        {
+            this.chunks = Arrays.copyOf(this.chunks, chunkIndex * 2);
+        }
+        Chunk chunk = this.chunks[chunkIndex];
+        if (chunk == null)
+        {
+            chunk = new Chunk();
+            this.chunks[chunkIndex] = chunk;
+        }
+
+        int flags = lineFlags & (FLAG_ERROR | FLAG_TRACE | FLAG_FOLDED);
+        int typeSlot = 0;
+        int ruleSlot = 0;
+        int serverSeconds = -1;
+        long receivedMillis = System.currentTimeMillis();
+        if (message instanceof TelnetMessage)
+        {
+            final TelnetMessage telnetMessage = (TelnetMessage) message;
+            flags |= FLAG_TELNET;
+            typeSlot = telnetMessage.getMessageType() == null ? 0 : telnetMessage.getMessageType().ordinal() + 1;
+            ruleSlot = telnetMessage.getHighlight() == null ? 0 : telnetMessage.getHighlight().getIndex() + 1;
+            startRuleEpoch(index, telnetMessage.getHighlighter());
+            receivedMillis = telnetMessage.getParsed().getReceivedMillis();
+            serverSeconds = telnetMessage.getParsed().getServerSeconds();
+        }
+        final int serverTime = toServerTime(this.clock.advance(serverSeconds, receivedMillis));
+        final int color = colorIndex(message.getColor());
+
+        final String line = message.getMessage();
+        final byte[] encoded;
+        if (isLatin1(line))
+        {
+            flags |= FLAG_LATIN1;
+            encoded = line.getBytes(StandardCharsets.ISO_8859_1);
+        }
+        else
+        {
+            encoded = line.getBytes(StandardCharsets.UTF_8);
+        }
+
+        if ((index & CHUNK_MASK) == 0)
+        {
+            if (chunkIndex == this.chunkServerTimes.length)
+            {
+                this.chunkServerTimes = Arrays.copyOf(this.chunkServerTimes, chunkIndex * 2);
+            }
+            this.chunkServerTimes[chunkIndex] = serverTime;
+        }
+
+        chunk.put(receivedMillis, serverTime, typeSlot, flags, color, ruleSlot, encoded, encoded.length);
+        if (this.journal != null && !this.journal.append(index, receivedMillis, serverTime, typeSlot, flags, color, ruleSlot, encoded, 0, encoded.length))
+        {
+            chunk.complete = false;
+        }
+        this.searchIndex.add(index, line);
+
+        // Publishing the size last makes everything above visible to readers
+        this.size = index + 1;
+
+        if ((index & CHUNK_MASK) == CHUNK_MASK)
+        {
+            chunk.seal();
+            evict(chunkIndex);
+        }
+        return index;
+    }
+
+    // Counts one more arrival of an earlier line instead of storing it again. Repeats only ever point a short
+    // way back, into a chunk that is still in memory, and go with the chunk when it is evicted.
+    public synchronized void repeat(final int index, final long receivedMillis)
+    {
+        final Chunk chunk = chunk(index);
+        if (chunk.repeats == null)
+        {
+            chunk.repeats = new Repeat[CHUNK_LINES];
+        }
+        final int slot = index & CHUNK_MASK;
+        final Repeat repeat = chunk.repeats[slot];
+        chunk.repeats[slot] = new Repeat(repeat == null ? 2 : repeat.count + 1, receivedMillis);
+    }
+
+    // Null for a line that arrived once, or whose chunk was paged back in from the journal
+    public Repeat getRepeat(final int index)
+    {
+        final Repeat[] repeats = chunk(index).repeats;
+        return repeats == null ? null : repeats[index & CHUNK_MASK];
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public SearchIndex getSearchIndex()
+    {
+        return this.searchIndex;
+    }
+
+    // Null when every line is kept in memory
+    public SessionJournal getJournal()
+    {
+        return this.journal;
+    }
+
+    public int getFlags(final int index)
+    {
+        return chunk(index).flags[index & CHUNK_MASK];
+    }
+
+    public boolean isTelnet(final int index)
+    {
+        return (getFlags(index) & FLAG_TELNET) != 0;
+    }
+
+    public boolean isError(final int index)
+    {
+        return (getFlags(index) & FLAG_ERROR) != 0;
+    }
+
+    public boolean isFolded(final int index)
+    {
+        return (getFlags(index) & FLAG_FOLDED) != 0;
+    }
+
+    public boolean isTrace(final int index)
+    {
+        return (getFlags(index) & FLAG_TRACE) != 0;
+    }
+
+    // The message type ordinal plus one, zero for an untyped line
+    public int getTypeSlot(final int index)
+    {
+        return chunk(index).types[index & CHUNK_MASK] & 0xFF;
+    }
+
+    // The highlight rule index plus one, zero when no rule matched, as matched when the line was stored
+    public int getRuleSlot(final int index)
+    {
+        return chunk(index).rules[index & CHUNK_MASK] & 0xFFFF;
+    }
+
+    // The rule slot against the given rule list, lines stored under an earlier list are matched again
+    public int getRuleSlot(final int index, final HighlightMatcher highlighter)
+    {
+        final HighlightMatcher matchedWith = getRuleEpoch(index);
+        if (matchedWith == null || matchedWith == highlighter)
+        {
+            return getRuleSlot(index);
+        }
+
+        final Chunk chunk = chunk(index);
+        final int slot = index & CHUNK_MASK;
+        synchronized (chunk)
+        {
+            if (chunk.rematchedWith != highlighter)
+            {
+                chunk.rematchedWith = highlighter;
+                chunk.rematched = new short[CHUNK_LINES];
+                Arrays.fill(chunk.rematched, (short) -1);
+            }
+            if (chunk.rematched[slot] < 0)
+            {
+                final String text = getText(index);
+                final ParsedLine parsed = ParsedLine.parse(text, 0);
+                final HighlightRule rule = highlighter.rematch(text, parsed.getBodyStart(), parsed.getBodyEnd());
+                chunk.rematched[slot] = (short) (rule == null ? 0 : rule.getIndex() + 1);
+            }
+            return chunk.rematched[slot];
+        }
+    }
+
+    private void startRuleEpoch(final int index, final HighlightMatcher highlighter)
+    {
+        final RuleEpoch[] epochs = this.ruleEpochs;
+        if (epochs.length == 0 || epochs[epochs.length - 1].highlighter != highlighter)
+        {
+            final RuleEpoch[] grown = Arrays.copyOf(epochs, epochs.length + 1);
+            grown[epochs.length] = new RuleEpoch(index, highlighter);
+            this.ruleEpochs = grown;
+        }
+    }
+
+    private HighlightMatcher getRuleEpoch(final int index)
+    {
+        final RuleEpoch[] epochs = this.ruleEpochs;
+        for (int i = epochs.length - 1; i >= 0; i--)
+        {
+            if (epochs[i].firstIndex <= index)
+            {
+                return epochs[i].highlighter;
+            }
+        }
+        return null;
+    }
+
+    // Checks the encoded text in place, only lines that need UTF-8 are decoded
+    public boolean contains(final int index, final SearchIndex.Query query)
+    {
+        if (!this.searchIndex.mayContain(index, query))
+        {
+            return false;
+        }
+
+        final Chunk chunk = chunk(index);
+        final int slot = index & CHUNK_MASK;
+        if ((chunk.flags[slot] & FLAG_LATIN1) == 0)
+        {
+            return query.matches(getText(index));
+        }
+
+        return query.matchesLatin1(chunk.text, chunk.textOffset[slot], chunk.textLength[slot]);
+    }
+
+    public long getReceivedMillis(final int index)
+    {
+        return chunk(index).received[index & CHUNK_MASK];
+    }
+
+    // The server time from the log header of the line or the last one before it, -1 before the first header
+    public long getServerMillis(final int index)
+    {
+        final int serverTime = chunk(index).serverTimes[index & CHUNK_MASK];
+        return serverTime == NO_SERVER_TIME ? -1 : this.serverEpochMillis + serverTime * 1000L;
+    }
+
+    // The first line at or after a server time, size() when there is none. Server times never go backwards,
+    // so this is a binary search over the chunks, which pages in at most the one chunk it ends in
+    public int findServerTime(final long serverMillis)
+    {
+        final int _size = this.size;
+        final long epoch = this.serverEpochMillis;
+        if (_size == 0 || epoch < 0)
+        {
+            return _size;
+        }
+
+        final long seconds = Math.floorDiv(serverMillis - epoch + 999, 1000L);
+        final int target = (int) Math.max(NO_SERVER_TIME + 1, Math.min(Integer.MAX_VALUE, seconds));
+        final int[] firstTimes = this.chunkServerTimes;
+
+        // The last chunk starting before the target holds the first line at or after it, unless the next chunk starts with it
+        int low = 0;
+        int high = ((_size - 1) >>> CHUNK_SHIFT) + 1;
+        while (low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (firstTimes[middle] < target)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        if (low == 0)
+        {
+            return 0;
+        }
+
+        final int chunkIndex = low - 1;
+        final Chunk chunk = chunk(chunkIndex << CHUNK_SHIFT);
+        int from = 0;
+        int to = Math.min(CHUNK_LINES, _size - (chunkIndex << CHUNK_SHIFT));
+        while (from < to)
+        {
+            final int middle = (from + to) >>> 1;
+            if (chunk.serverTimes[middle] < target)
+            {
+                from = middle + 1;
+            }
+            else
+            {
+                to = middle;
+            }
+        }
+        return (chunkIndex << CHUNK_SHIFT) + from;
+    }
+
+    public Color getColor(final int index)
+    {
+        return this.palette[chunk(index).colors[index & CHUNK_MASK] & 0xFF];
+    }
+
+    // Encoded bytes, which is the character count for all but the rare non Latin-1 line
+    public int getTextLength(final int index)
+    {
+        return chunk(index).textLength[index & CHUNK_MASK];
+    }
+
+    public String getText(final int index)
+    {
+        final Chunk chunk = chunk(index);
+        final int slot = index & CHUNK_MASK;
+        return new String(chunk.text, chunk.textOffset[slot], chunk.textLength[slot],
+                (chunk.flags[slot] & FLAG_LATIN1) != 0 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    public synchronized long getRetainedBytes()
+    {
+        long retained = 0;
+        for (final Chunk chunk : this.chunks)
+        {
+            if (chunk != null)
+            {
+                retained += chunk.getRetainedBytes();
+            }
+        }
+        return retained;
+    }
+
+    public void close()
+    {
+        if (this.journal != null)
+        {
+            this.journal.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("Log store: %d lines, %.1f MB in memory, %d chunks paged out, %.1f MB search index",
+                size(), getRetainedBytes() / (1024.0 * 1024.0), this.evictedChunks, this.searchIndex.getRetainedBytes() / (1024.0 * 1024.0));
+    }
+
+    private Chunk chunk(final int index)
+    {
+        if (index < 0 || index >= this.size)
+        {
+            throw new IndexOutOfBoundsException("Line " + index + " of " + this.size);
+        }
+
+        final Chunk chunk = this.chunks[index >>> CHUNK_SHIFT];
+        return chunk != null ? chunk : pageIn(index >>> CHUNK_SHIFT);
+    }
+
+    // Only whole chunks that made it into the journal leave memory
+    private void evict(final int newestChunk)
+    {
+        while (this.journal != null && newestChunk + 1 - this.firstResident > this.retainChunks)
+        {
+            if (this.chunks[this.firstResident].complete)
+            {
+                this.chunks[this.firstResident] = null;
+                this.evictedChunks++;
+            }
+            this.firstResident++;
+        }
+    }
+
+    // Runs on whichever thread reads an evicted line, without holding up appends
+    private Chunk pageIn(final int chunkIndex)
+    {
+        synchronized (this.paged)
+        {
+            Chunk chunk = this.paged.get(chunkIndex);
+            if (chunk == null)
+            {
+                final Chunk loaded = new Chunk();
+                this.journal.read(chunkIndex, CHUNK_LINES, (receivedMillis, serverTime, typeSlot, flags, color, ruleSlot, text, length)
+                        -> 
+                        {
+                            loaded.put(receivedMillis, serverTime, typeSlot, flags, color, ruleSlot, text, length);
+                });
+                loaded.seal();
+                this.paged.put(chunkIndex, loaded);
+                chunk = loaded;
+            }
+            return chunk;
+        }
+    }
+
+    // Seconds since the clock's first day start, an int column covers decades
+    private int toServerTime(final long serverMillis)
+    {
+        if (serverMillis < 0)
+        {
+            return NO_SERVER_TIME;
+        }
+        if (this.serverEpochMillis < 0)
+        {
+            this.serverEpochMillis = this.clock.getEpochMillis();
+        }
+        return (int) Math.floorDiv(serverMillis - this.serverEpochMillis, 1000L);
+    }
+
+    private byte colorIndex(final Color color)
+    {
+        final Color[] _palette = this.palette;
+        for (int i = 0; i < _palette.length; i++)
+        {
+            if (_palette[i].equals(color))
+            {
+                return (byte) i;
+            }
+        }
+
+        if (color == null || _palette.length == MAX_COLORS)
+        {
+            return 0;
+        }
+
+        final Color[] grown = Arrays.copyOf(_palette, _palette.length + 1);
+        grown[_palette.length] = color;
+        this.palette = grown;
+        return (byte) _palette.length;
+    }
+
+    private static boolean isLatin1(final String line)
+    {
+        for (int i = 0; i < line.length(); i++)
+        {
+            if (line.charAt(i) > 0xFF)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static final class Repeat
+    {
+
+        private final int count;
+        private final long lastMillis;
+
+        private Repeat(final int count, final long lastMillis)
+        {
+            this.count = count;
+            this.lastMillis = lastMillis;
+        }
+
+        // Every arrival, the first one included
+        public int getCount()
+        {
+            return this.count;
+        }
+
+        public long getLastMillis()
+        {
+            return this.lastMillis;
+        }
+    }
+
+    private static final class RuleEpoch
+    {
+
+        private final int firstIndex;
+        private final HighlightMatcher highlighter;
+
+        private RuleEpoch(final int firstIndex, final HighlightMatcher highlighter)
+        {
+            this.firstIndex = firstIndex;
+            this.highlighter = highlighter;
+        }
+    }
+
+    private static final class Chunk
+    {
+
+        private static final int BYTES_PER_LINE = 1 + 1 + 1 + 2 + 8 + 4 + 4 + 4;
+
+        private final byte[] types = new byte[CHUNK_LINES];
+        private final byte[] flags = new byte[CHUNK_LINES];
+        private final byte[] colors = new byte[CHUNK_LINES];
+        private final short[] rules = new short[CHUNK_LINES];
+        private final long[] received = new long[CHUNK_LINES];
+        private final int[] serverTimes = new int[CHUNK_LINES];
+        private final int[] textOffset = new int[CHUNK_LINES];
+        private final int[] textLength = new int[CHUNK_LINES];
+        // Replaced by a larger copy as it fills, a reader holding the old one still finds every line it can see
+        private byte[] text = new byte[64 * 1024];
+        private int textSize = 0;
+        private int lines = 0;
+        // Cleared when a line could not be journaled, such a chunk is never evicted
+        private boolean complete = true;
+        // Lines that stand for several identical arrivals, allocated with the first repeat in the chunk. Only
+        // the appending thread replaces entries.
+        private Repeat[] repeats;
+        // Rule slots matched again after a highlight reload, -1 until a line is first looked at
+        private HighlightMatcher rematchedWith;
+        private short[] rematched;
+
+        private void put(final long receivedMillis, final int serverTime, final int typeSlot, final int flags, final int color, final int ruleSlot, final byte[] bytes, final int length)
+        {
+            if (this.textSize + length > this.text.length)
+            {
+                this.text = Arrays.copyOf(this.text, Math.max(this.textSize + length, this.text.length * 2));
+            }
+            System.arraycopy(bytes, 0, this.text, this.textSize, length);
+
+            final int slot = this.lines++;
+            this.types[slot] = (byte) typeSlot;
+            this.flags[slot] = (byte) flags;
+            this.colors[slot] = (byte) color;
+            this.rules[slot] = (short) ruleSlot;
+            this.received[slot] = receivedMillis;
+            this.serverTimes[slot] = serverTime;
+            this.textOffset[slot] = this.textSize;
+            this.textLength[slot] = length;
+            this.textSize += length;
+        }
+
+        private void seal()
+        {
+            if (this.text.length != this.textSize)
+            {
+                this.text = Arrays.copyOf(this.text, this.textSize);
+            }
+        }
+
+        private long getRetainedBytes()
+        {
+            return (long) CHUNK_LINES * BYTES_PER_LINE + this.text.length;
+        }
+    }
+}
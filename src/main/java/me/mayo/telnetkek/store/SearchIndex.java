@@ -0,0 +1,261 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.store;
+
+import java.util.Arrays;
+
+// A signature per line with one bit set for every case-folded trigram of its text. A line can only contain
+// a query if its signature covers all of the query's trigram bits, so a search is a scan over a few longs
+// per line and the text of the few lines that pass is checked for real.
+// Signatures grow with the text, 128 bits up to 66 characters, 256 up to 130 and 512 for longer lines,
+// which keeps them under half full so a long line doesn't pass for nearly every query.
+// Signatures are kept in the store's chunks of lines, 4 bytes of offset a line on top of the bits, and released
+// a chunk at a time.
+public final class SearchIndex
+{
+
+    private static final int CHUNK_SHIFT = 13;
+    private static final int CHUNK_LINES = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_LINES - 1;
+    // Signatures of 2 << sizeClass longs
+    private static final int SIZE_CLASSES = 3;
+    private static final int MIN_SIGNATURE_BITS = 128;
+
+    private volatile Chunk[] chunks = new Chunk[16];
+    // Chunks below this one have been released
+    private volatile int firstChunk = 0;
+
+    synchronized void add(final int index, final String text)
+    {
+        final int chunkIndex = index >>> CHUNK_SHIFT;
+        if (chunkIndex < this.firstChunk)
+        {
+            return;
+        }
+        if (chunkIndex >= this.chunks.length)
+        {
+            this.chunks = Arrays.copyOf(this.chunks, Math.max(chunkIndex + 1, this.chunks.length * 2));
+        }
+        Chunk chunk = this.chunks[chunkIndex];
+        if (chunk == null)
+        {
+            chunk = new Chunk();
+            this.chunks[chunkIndex] = chunk;
+        }
+
+        final int trigrams = text.length() - 2;
+        int sizeClass = 0;
+        while (sizeClass < SIZE_CLASSES - 1 && MIN_SIGNATURE_BITS << sizeClass < trigrams * 2)
+        {
+            sizeClass++;
+        }
+        final int bitsShift = 64 - Integer.numberOfTrailingZeros(MIN_SIGNATURE_BITS << sizeClass);
+        final int offset = chunk.allocate(index & CHUNK_MASK, sizeClass);
+        final long[] signatures = chunk.signatures;
+        for (int i = 0; i < trigrams; i++)
+        {
+            final int bit = (int) (trigramHash(text, i) >>> bitsShift);
+            signatures[offset + (bit >>> 6)] |= 1L << bit;
+        }
+
+        if ((index & CHUNK_MASK) == CHUNK_MASK)
+        {
+            chunk.seal();
+        }
+    }
+
+    // Lines below the index are no longer retained anywhere that is searched
+    public synchronized void releaseBefore(final int index)
+    {
+        final int chunkIndex = Math.min(index >>> CHUNK_SHIFT, this.chunks.length);
+        for (int i = this.firstChunk; i < chunkIndex; i++)
+        {
+            this.chunks[i] = null;
+        }
+        this.firstChunk = Math.max(this.firstChunk, chunkIndex);
+    }
+
+    public static Query compile(final String query)
+    {
+        final long[][] masks = new long[SIZE_CLASSES][];
+        for (int sizeClass = 0; sizeClass < SIZE_CLASSES; sizeClass++)
+        {
+            final long[] mask = new long[2 << sizeClass];
+            final int bitsShift = 64 - Integer.numberOfTrailingZeros(MIN_SIGNATURE_BITS << sizeClass);
+            for (int i = 0; i + 3 <= query.length(); i++)
+            {
+                final int bit = (int) (trigramHash(query, i) >>> bitsShift);
+                mask[bit >>> 6] |= 1L << bit;
+            }
+            masks[sizeClass] = mask;
+        }
+        return new Query(query, masks);
+    }
+
+    // False only when the line certainly does not contain the query. Released lines always might.
+    public boolean mayContain(final int index, final Query query)
+    {
+        final Chunk[] _chunks = this.chunks;
+        final int chunkIndex = index >>> CHUNK_SHIFT;
+        final Chunk chunk = chunkIndex < _chunks.length ? _chunks[chunkIndex] : null;
+        if (chunk == null)
+        {
+            return true;
+        }
+
+        final int entry = chunk.entries[index & CHUNK_MASK];
+        final long[] mask = query.masks[entry & 3];
+        final int offset = entry >>> 2;
+        final long[] signatures = chunk.signatures;
+        for (int i = 0; i < mask.length; i++)
+        {
+            if ((signatures[offset + i] & mask[i]) != mask[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized long getRetainedBytes()
+    {
+        long retained = 0;
+        for (final Chunk chunk : this.chunks)
+        {
+            if (chunk != null)
+            {
+                retained += chunk.entries.length * 4L + chunk.signatures.length * 8L;
+            }
+        }
+        return retained;
+    }
+
+    // The top bits pick the signature bit, so every signature size takes as many as it needs from one hash
+    private static long trigramHash(final String text, final int start)
+    {
+        long hash = fold(text.charAt(start));
+        hash = hash << 16 | fold(text.charAt(start + 1));
+        hash = hash << 16 | fold(text.charAt(start + 2));
+        return hash * 0x9E3779B97F4A7C15L;
+    }
+
+    private static char fold(final char c)
+    {
+        return c < 0x80 ? (c >= 'A' && c <= 'Z' ? (char) (c + 32) : c) : Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static final class Chunk
+    {
+
+        // Offset into signatures shifted left by two, or'ed with the size class
+        private final int[] entries = new int[CHUNK_LINES];
+        // Replaced by a larger copy as it fills, a reader holding the old one still finds every line it can see
+        private long[] signatures = new long[CHUNK_LINES * 4];
+        private int used = 0;
+
+        private int allocate(final int slot, final int sizeClass)
+        {
+            final int length = 2 << sizeClass;
+            if (this.used + length > this.signatures.length)
+            {
+                this.signatures = Arrays.copyOf(this.signatures, this.signatures.length * 2);
+            }
+            final int offset = this.used;
+            this.used += length;
+            this.entries[slot] = offset << 2 | sizeClass;
+            return offset;
+        }
+
+        private void seal()
+        {
+            if (this.signatures.length != this.used)
+            {
+                this.signatures = Arrays.copyOf(this.signatures, this.used);
+            }
+        }
+    }
+
+    public static final class Query
+    {
+
+        private final String text;
+        private final char[] folded;
+        // Trigram bits of the query for each signature size
+        private final long[][] masks;
+
+        private Query(final String text, final long[][] masks)
+        {
+            this.text = text;
+            this.folded = new char[text.length()];
+            for (int i = 0; i < this.folded.length; i++)
+            {
+                this.folded[i] = fold(text.charAt(i));
+            }
+            this.masks = masks;
+        }
+
+        public String getText()
+        {
+            return this.text;
+        }
+
+        // The check for real, folding case the same way as String.regionMatches does
+        public boolean matches(final String line)
+        {
+            return indexIn(line, 0) >= 0;
+        }
+
+        public int indexIn(final String line, final int from)
+        {
+            final int last = line.length() - this.folded.length;
+            outer:
+            for (int i = from; i <= last; i++)
+            {
+                for (int j = 0; j < this.folded.length; j++)
+                {
+                    if (fold(line.charAt(i + j)) != this.folded[j])
+                    {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        // Same as indexIn on Latin-1 text, straight from the encoded bytes
+        boolean matchesLatin1(final byte[] bytes, final int offset, final int length)
+        {
+            final int last = offset + length - this.folded.length;
+            outer:
+            for (int i = offset; i <= last; i++)
+            {
+                for (int j = 0; j < this.folded.length; j++)
+                {
+                    if (fold((char) (bytes[i + j] & 0xFF)) != this.folded[j])
+                    {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
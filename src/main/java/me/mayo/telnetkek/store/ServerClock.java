@@ -0,0 +1,65 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.store;
+
+import java.time.Instant;
+import java.time.ZoneId;
+
+// Turns the HH:mm:ss of log headers into a timeline that never runs backwards. Each header lands on the day
+// that puts it nearest to where the previous header and the time since it was received say it should be,
+// so midnight, reconnects after long gaps and replays faster than real time all come out in order.
+// Server times are wall clock times of the server read in the local time zone, counted from a day start.
+final class ServerClock
+{
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private long epochMillis = -1;
+    // Server time minus receive time at the last header
+    private long offsetMillis = 0;
+    private long last = -1;
+
+    // The server time of a line, -1 until the first header has been seen
+    long advance(final int serverSeconds, final long receivedMillis)
+    {
+        if (serverSeconds < 0)
+        {
+            return this.last;
+        }
+
+        if (this.epochMillis < 0)
+        {
+            this.epochMillis = Instant.ofEpochMilli(receivedMillis).atZone(ZoneId.systemDefault()).toLocalDate()
+                    .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+
+        final long expected = receivedMillis + this.offsetMillis;
+        final long sameDay = this.epochMillis + serverSeconds * 1000L;
+        final long serverMillis = sameDay + Math.round((double) (expected - sameDay) / DAY_MILLIS) * DAY_MILLIS;
+        this.offsetMillis = serverMillis - receivedMillis;
+        this.last = Math.max(this.last, serverMillis);
+        return this.last;
+    }
+
+    // The start of the day of the first header, -1 until then
+    long getEpochMillis()
+    {
+        return this.epochMillis;
+    }
+}
@@ -0,0 +1,573 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import me.mayo.telnetkek.TelnetKek;
+
+// Every line of a LogStore, appended to fixed size memory-mapped segment files. Appending only copies bytes
+// into the mapped region, every segment including the first is created and mapped ahead of time on the journal
+// executor and the operating system writes the pages out in its own time.
+// The journal pages store lines back by their index, so it holds the lines as the store has them, not the raw
+// stream: a repeat counted on an earlier line and trace lines past the fold limit are not in it. Every raw line
+// goes to the LogArchive instead, which is a consumer of the line ring itself.
+// Segment layout: MAGIC, then records of
+// [int length][long receivedMillis][int serverTime][byte typeSlot][byte flags][byte color][short ruleSlot][length bytes of text],
+// ended by END_OF_SEGMENT or a zero length where nothing was written.
+// A sparse index keeps the position and time range of the first record of every chunk of store lines.
+// A journal only serves the session that wrote it: nothing touches the disk before the first line, closing
+// unmaps and deletes every segment, and directories left behind by a crash are swept on the next start.
+public final class SessionJournal
+{
+
+    private static final byte[] MAGIC = new byte[]
+    {
+        'T', 'K', 'J', 'R', 'N', 'L', 2, 0
+    };
+    private static final int SEGMENT_SIZE = 16 << 20;
+    private static final int RECORD_HEADER = 4 + 8 + 4 + 1 + 1 + 1 + 2;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String LOCK_FILE = "lock";
+    private static final AtomicInteger JOURNAL_IDS = new AtomicInteger();
+    // Roots already swept by this process, directories are created and swept under SWEEP_LOCK
+    private static final Set<File> SWEPT_ROOTS = ConcurrentHashMap.newKeySet();
+    private static final Object SWEEP_LOCK = new Object();
+    // Never opened by the sweep, closing any handle on a lock file can drop the lock this process holds on it
+    private static final Set<File> LIVE_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    private final File root;
+    private final int chunkShift;
+    private final Executor executor;
+    // Held shared by readers of the mapped segments, exclusively while they are unmapped
+    private final ReadWriteLock unmapLock = new ReentrantReadWriteLock();
+    private File directory;
+    private RandomAccessFile lockFile;
+    private FileLock lock;
+    // Every segment stays mapped for paging back, readers take a duplicate
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private MappedByteBuffer current;
+    private volatile MappedByteBuffer next;
+    private boolean starting = false;
+    private boolean preparing = false;
+    private boolean closed = false;
+    private int[] entrySegment = new int[0];
+    private int[] entryOffset = new int[0];
+    private long[] entryFirstMillis = new long[0];
+    private long[] entryLastMillis = new long[0];
+    private long bytesWritten = 0;
+    private int droppedLines = 0;
+
+    private SessionJournal(final File root, final int chunkShift, final Executor executor)
+    {
+        this.root = root;
+        this.chunkShift = chunkShift;
+        this.executor = executor;
+    }
+
+    // Nothing is created until the first line, the first journal below a root sweeps it in the background
+    static SessionJournal open(final File root, final int chunkShift, final Executor executor)
+    {
+        if (SWEPT_ROOTS.add(root.getAbsoluteFile()))
+        {
+            executor.execute(() -> sweep(root));
+        }
+        return new SessionJournal(root, chunkShift, executor);
+    }
+
+    // Deletes the journals of sessions that are gone, a live one holds the lock on its lock file
+    private static void sweep(final File root)
+    {
+        final File[] directories = root.listFiles(File::isDirectory);
+        if (directories == null)
+        {
+            return;
+        }
+
+        for (final File directory : directories)
+        {
+            synchronized (SWEEP_LOCK)
+            {
+                if (LIVE_DIRECTORIES.contains(directory.getAbsoluteFile()))
+                {
+                    continue;
+                }
+
+                try (RandomAccessFile file = new RandomAccessFile(new File(directory, LOCK_FILE), "rw"))
+                {
+                    final FileLock stale = file.getChannel().tryLock();
+                    if (stale == null)
+                    {
+                        continue;
+                    }
+                    stale.release();
+                }
+                catch (OverlappingFileLockException ex)
+                {
+                    // Held by a journal of this process
+                    continue;
+                }
+                catch (IOException ex)
+                {
+                    TelnetKek.LOGGER.log(Level.WARNING, "Can't check journal " + directory, ex);
+                    continue;
+                }
+
+                if (!delete(directory))
+                {
+                    TelnetKek.LOGGER.log(Level.WARNING, "Can't delete stale journal {0}", directory);
+                }
+            }
+        }
+    }
+
+    private static File createDirectory(final File root) throws IOException
+    {
+        final File directory = new File(root, new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-" + JOURNAL_IDS.incrementAndGet());
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Can't create " + directory);
+        }
+        return directory;
+    }
+
+    // Runs on the journal executor like every later segment, lines that arrive meanwhile are counted as dropped
+    private void start()
+    {
+        this.starting = true;
+        this.executor.execute(()
+                -> 
+                {
+                    File _directory = null;
+                    RandomAccessFile _lockFile = null;
+                    FileLock _lock = null;
+                    MappedByteBuffer first = null;
+                    try
+                    {
+                        // A directory only becomes live once it is locked, or a sweep running meanwhile would take it
+                        synchronized (SWEEP_LOCK)
+                        {
+                            _directory = createDirectory(this.root);
+                            _lockFile = new RandomAccessFile(new File(_directory, LOCK_FILE), "rw");
+                            _lock = _lockFile.getChannel().lock();
+                            LIVE_DIRECTORIES.add(_directory.getAbsoluteFile());
+                        }
+                        first = mapSegment(_directory, 0);
+                    }
+                    catch (IOException ex)
+                    {
+                        // Lines stay in memory instead, the store never evicts a chunk that missed the journal
+                        TelnetKek.LOGGER.log(Level.SEVERE, "Can't start journal below " + this.root, ex);
+                    }
+
+                    synchronized (this)
+                    {
+                        this.starting = false;
+                        this.directory = _directory;
+                        this.lockFile = _lockFile;
+                        this.lock = _lock;
+                        if (first != null)
+                        {
+                            this.segments = new MappedByteBuffer[]
+                            {
+                                first
+                            };
+                        }
+                        if (first == null || this.closed)
+                        {
+                            // Failed, or closed while starting and nothing was there to release yet
+                            this.closed = true;
+                            release();
+                            return;
+                        }
+                        this.current = first;
+                        prepareNext();
+                    }
+        });
+    }
+
+    // Never waits for the disk, a line that finds no prepared segment is counted and left out
+    synchronized boolean append(final int line, final long receivedMillis, final int serverTime, final int typeSlot, final int flags, final int color, final int ruleSlot,
+            final byte[] text, final int offset, final int length)
+    {
+        if (this.closed)
+        {
+            return false;
+        }
+
+        if (this.current == null)
+        {
+            if (!this.starting)
+            {
+                start();
+            }
+            this.droppedLines++;
+            return false;
+        }
+
+        final int needed = RECORD_HEADER + length;
+        if (this.current.remaining() < needed + 4 && !nextSegment(needed))
+        {
+            this.droppedLines++;
+            return false;
+        }
+
+        final int entry = line >>> this.chunkShift;
+        if (entry >= this.entrySegment.length)
+        {
+            final int grown = Math.max(entry + 1, this.entrySegment.length * 2);
+            final int oldLength = this.entrySegment.length;
+            this.entrySegment = Arrays.copyOf(this.entrySegment, grown);
+            this.entryOffset = Arrays.copyOf(this.entryOffset, grown);
+            this.entryFirstMillis = Arrays.copyOf(this.entryFirstMillis, grown);
+            this.entryLastMillis = Arrays.copyOf(this.entryLastMillis, grown);
+            Arrays.fill(this.entrySegment, oldLength, grown, -1);
+        }
+        if ((line & ((1 << this.chunkShift) - 1)) == 0)
+        {
+            this.entrySegment[entry] = this.segments.length - 1;
+            this.entryOffset[entry] = this.current.position();
+            this.entryFirstMillis[entry] = receivedMillis;
+        }
+        this.entryLastMillis[entry] = receivedMillis;
+
+        this.current.putInt(length)
+                .putLong(receivedMillis)
+                .putInt(serverTime)
+                .put((byte) typeSlot)
+                .put((byte) flags)
+                .put((byte) color)
+                .putShort((short) ruleSlot)
+                .put(text, offset, length);
+        this.bytesWritten += needed;
+        return true;
+    }
+
+    // Reads back the lines of one chunk, which must all have been journaled. Appends go on meanwhile, the
+    // caller has seen the lines published by the store, which happens after they were written here.
+    void read(final int chunkIndex, final int count, final RecordVisitor visitor)
+    {
+        this.unmapLock.readLock().lock();
+        try
+        {
+            if (this.closed)
+            {
+                throw new IllegalStateException("Journal closed");
+            }
+            readSegments(chunkIndex, count, visitor);
+        }
+        finally
+        {
+            this.unmapLock.readLock().unlock();
+        }
+    }
+
+    private void readSegments(final int chunkIndex, final int count, final RecordVisitor visitor)
+    {
+        final MappedByteBuffer[] _segments = this.segments;
+        int segment = this.entrySegment[chunkIndex];
+        ByteBuffer buffer = _segments[segment].duplicate();
+        buffer.position(this.entryOffset[chunkIndex]);
+
+        byte[] text = new byte[256];
+        int i = 0;
+        while (i < count)
+        {
+            final int length = buffer.remaining() < 4 ? END_OF_SEGMENT : buffer.getInt();
+            if (length == END_OF_SEGMENT || length == 0)
+            {
+                segment++;
+                buffer = _segments[segment].duplicate();
+                buffer.position(MAGIC.length);
+                continue;
+            }
+
+            final long receivedMillis = buffer.getLong();
+            final int serverTime = buffer.getInt();
+            final int typeSlot = buffer.get() & 0xFF;
+            final int flags = buffer.get() & 0xFF;
+            final int color = buffer.get() & 0xFF;
+            final int ruleSlot = buffer.getShort() & 0xFFFF;
+            if (text.length < length)
+            {
+                text = new byte[Math.max(length, text.length * 2)];
+            }
+            buffer.get(text, 0, length);
+            visitor.visit(receivedMillis, serverTime, typeSlot, flags, color, ruleSlot, text, length);
+            i++;
+        }
+    }
+
+    public synchronized File getDirectory()
+    {
+        return this.directory;
+    }
+
+    public synchronized long getBytesWritten()
+    {
+        return this.bytesWritten;
+    }
+
+    public synchronized int getDroppedLines()
+    {
+        return this.droppedLines;
+    }
+
+    // The receive time range of a chunk of lines, for finding lines by time without paging them in
+    public synchronized long getFirstMillis(final int chunkIndex)
+    {
+        return this.entryFirstMillis[chunkIndex];
+    }
+
+    public synchronized long getLastMillis(final int chunkIndex)
+    {
+        return this.entryLastMillis[chunkIndex];
+    }
+
+    // Unmaps and deletes every segment, the journal only ever serves the session that wrote it
+    public synchronized void close()
+    {
+        if (this.closed)
+        {
+            return;
+        }
+
+        this.unmapLock.writeLock().lock();
+        try
+        {
+            this.closed = true;
+            release();
+        }
+        finally
+        {
+            this.unmapLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        if (this.directory == null)
+        {
+            return "Journal: nothing written yet";
+        }
+        return String.format("Journal: %s, %d segments, %.1f MB written, %d lines dropped%s",
+                this.directory, this.segments.length, this.bytesWritten / (1024.0 * 1024.0), this.droppedLines, this.closed ? ", closed" : "");
+    }
+
+    private void release()
+    {
+        for (final MappedByteBuffer segment : this.segments)
+        {
+            unmap(segment);
+        }
+        if (this.next != null)
+        {
+            unmap(this.next);
+            this.next = null;
+        }
+        this.segments = new MappedByteBuffer[0];
+        this.current = null;
+
+        // Either may be missing when starting failed half way
+        if (this.lockFile != null)
+        {
+            try
+            {
+                if (this.lock != null)
+                {
+                    this.lock.release();
+                }
+            }
+            catch (IOException ex)
+            {
+                TelnetKek.LOGGER.log(Level.WARNING, null, ex);
+            }
+            finally
+            {
+                try
+                {
+                    this.lockFile.close();
+                }
+                catch (IOException ex)
+                {
+                    TelnetKek.LOGGER.log(Level.WARNING, null, ex);
+                }
+            }
+            this.lock = null;
+            this.lockFile = null;
+        }
+
+        // Whatever can't be deleted now, a segment still mapped on some platforms, goes with the next sweep
+        if (this.directory != null)
+        {
+            if (!delete(this.directory))
+            {
+                TelnetKek.LOGGER.log(Level.WARNING, "Can't delete journal {0}", this.directory);
+            }
+            LIVE_DIRECTORIES.remove(this.directory.getAbsoluteFile());
+        }
+    }
+
+    private static boolean delete(final File directory)
+    {
+        final File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (final File file : files)
+            {
+                file.delete();
+            }
+        }
+        return directory.delete();
+    }
+
+    // Unmapped right away instead of whenever the buffer is collected, which may be never for a long session
+    private static void unmap(final MappedByteBuffer buffer)
+    {
+        try
+        {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+            return;
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            // Not there on Java 8
+        }
+
+        try
+        {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            TelnetKek.LOGGER.log(Level.FINE, "Segment left to the garbage collector", ex);
+        }
+    }
+
+    private boolean nextSegment(final int needed)
+    {
+        if (needed + 4 > SEGMENT_SIZE - MAGIC.length)
+        {
+            return false;
+        }
+
+        final MappedByteBuffer prepared = this.next;
+        if (prepared == null)
+        {
+            prepareNext();
+            return false;
+        }
+
+        if (this.current.remaining() >= 4)
+        {
+            this.current.putInt(END_OF_SEGMENT);
+        }
+        this.next = null;
+        this.current = prepared;
+
+        final MappedByteBuffer[] grown = Arrays.copyOf(this.segments, this.segments.length + 1);
+        grown[this.segments.length] = prepared;
+        this.segments = grown;
+
+        prepareNext();
+        return true;
+    }
+
+    private void prepareNext()
+    {
+        if (this.preparing || this.next != null)
+        {
+            return;
+        }
+        this.preparing = true;
+
+        final int number = this.segments.length;
+        this.executor.execute(()
+                -> 
+                {
+                    MappedByteBuffer prepared = null;
+                    try
+                    {
+                        prepared = mapSegment(this.directory, number);
+                    }
+                    catch (IOException ex)
+                    {
+                        TelnetKek.LOGGER.log(Level.SEVERE, null, ex);
+                    }
+
+                    synchronized (this)
+                    {
+                        this.preparing = false;
+                        if (this.closed)
+                        {
+                            // Closed while this was being mapped, its file went with the directory
+                            if (prepared != null)
+                            {
+                                unmap(prepared);
+                            }
+                            return;
+                        }
+                        this.next = prepared;
+                    }
+        });
+    }
+
+    private static MappedByteBuffer mapSegment(final File directory, final int number) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, String.format("%06d.seg", number)), "rw"))
+        {
+            file.setLength(SEGMENT_SIZE);
+            final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            buffer.put(MAGIC);
+            return buffer;
+        }
+    }
+
+    static interface RecordVisitor
+    {
+
+        public void visit(long receivedMillis, int serverTime, int typeSlot, int flags, int color, int ruleSlot, byte[] text, int length);
+    }
+}
@@ -0,0 +1,147 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek;
+
+import java.util.Random;
+import me.mayo.telnetkek.TelnetMessage.LogMessageType;
+
+// Checks LogMessageClassifier against the regex scan it replaced, then times both on typical lines.
+// Run after mvn test-compile: java -cp target/classes:target/test-classes me.mayo.telnetkek.LogMessageClassifierCheck [lines]
+public final class LogMessageClassifierCheck
+{
+
+    private static final String[] FRAGMENTS =
+    {
+        ":[", " INFO]: ", " WARN]: ", "<", "[Server:", "[CONSOLE]<", "[TotalFreedomMod] [ADMIN] ", " [SA]: ", " [STA]: ", " [SrA]: ", " [Dev]: ",
+        " [Owner]: ", " [Founder]: ", " [Console]: ", "WorldEdit: ", "[PREPROCESS_COMMAND] ", " issued server command: ", "[PLAYER_COMMAND] ",
+        " is a Super Admin", " is a Super Telnet Admin", " is a Telnet Admin", " is a Telnet Clan Admin", " is a Telnet Clanx Admin",
+        " is a Telnet Clan\uD83D\uDE00 Admin", " is a Senior Admin", "x", "12:00:00", " ", "\n", "\r", "]", "[", ":", "\uD83D\uDE00", "\uD83D",
+        "Admin", " is a "
+    };
+    private static final String[] TYPICAL_LINES =
+    {
+        ":[12:00:00 INFO]: <Steve> hello there everyone",
+        ":[12:00:00 INFO]: Steve issued server command: /tp Alex",
+        ":[12:00:00 INFO]: [TotalFreedomMod] [ADMIN] Steve [SrA]: hi",
+        ":[12:00:00 INFO]: Steve lost connection: Disconnected",
+        ":[12:00:00 WARN]: Can't keep up! Is the server overloaded?",
+        ":[12:00:00 INFO]: Steve is a Senior Admin",
+        ":[12:00:00 INFO]: [PLAYER_COMMAND] Steve: /home"
+    };
+    private static final int ITERATIONS = 200000;
+    private static final int WARMUP_ROUNDS = 2;
+
+    private LogMessageClassifierCheck()
+    {
+    }
+
+    public static void main(final String args[])
+    {
+        final int lines = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        final long mismatches = checkEquivalence(lines);
+        System.out.println(lines + " lines checked, " + mismatches + " mismatches");
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++)
+        {
+            for (final String line : TYPICAL_LINES)
+            {
+                final long regexNanos = time(line, true);
+                final long classifierNanos = time(line, false);
+                if (round == WARMUP_ROUNDS)
+                {
+                    System.out.printf("%-60.60s regex %8.0f ns  classifier %6.0f ns  %s%n", line,
+                            (double) regexNanos / ITERATIONS, (double) classifierNanos / ITERATIONS, LogMessageType.getMessageType(line));
+                }
+            }
+        }
+
+        if (mismatches > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    // Lines assembled from pattern fragments, header look-alikes, line terminators and split surrogates
+    private static long checkEquivalence(final int lines)
+    {
+        final Random random = new Random(42);
+        long mismatches = 0;
+        for (int i = 0; i < lines; i++)
+        {
+            final StringBuilder builder = new StringBuilder();
+            if (random.nextInt(10) > 0)
+            {
+                builder.append(":[");
+            }
+            final int fragments = random.nextInt(8);
+            for (int j = 0; j < fragments; j++)
+            {
+                builder.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            if (random.nextBoolean())
+            {
+                builder.insert(Math.min(builder.length(), 2), "12:00:00 INFO]: ");
+            }
+
+            final String line = builder.toString();
+            final LogMessageType expected = regexScan(line);
+            final LogMessageType actual = LogMessageType.getMessageType(line);
+            if (expected != actual && mismatches++ < 10)
+            {
+                System.out.println("Mismatch: regex " + expected + ", classifier " + actual + " for '" + line.replace("\n", "\\n").replace("\r", "\\r") + "'");
+            }
+        }
+        return mismatches;
+    }
+
+    private static long time(final String line, final boolean regex)
+    {
+        int matched = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            if ((regex ? regexScan(line) : LogMessageType.getMessageType(line)) != null)
+            {
+                matched++;
+            }
+        }
+        final long nanos = System.nanoTime() - start;
+
+        // Keeps the loop from being optimized away
+        if (matched == -1)
+        {
+            System.out.println(matched);
+        }
+        return nanos;
+    }
+
+    // How LogMessageType.getMessageType worked before the classifier
+    private static LogMessageType regexScan(final String message)
+    {
+        for (final LogMessageType type : LogMessageType.values())
+        {
+            if (type.getMessagePattern().matcher(message).find())
+            {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,153 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.mayo.telnetkek.store;
+
+import java.util.Random;
+
+// Measures how many lines the trigram signatures let through to the text check on typical 150 to 200 character
+// console lines, and times a search with and without them.
+// Run after mvn test-compile: java -cp target/classes:target/test-classes me.mayo.telnetkek.store.SearchIndexCheck [lines]
+public final class SearchIndexCheck
+{
+
+    private static final String[] NAMES =
+    {
+        "Steve", "Alex", "Notch_Fan99", "xXCreeperXx", "BuilderBob", "RedstoneRita", "diamond_dan", "LagMaster3000", "Prismarine",
+        "SkyBlocker", "EnderQueen", "mayo", "Obsidian_Owl", "TntTim", "CobbleKing"
+    };
+    private static final String[] WORDS =
+    {
+        "the", "server", "is", "lagging", "again", "can", "someone", "please", "teleport", "me", "to", "spawn", "who", "griefed",
+        "my", "house", "near", "village", "with", "lava", "and", "tnt", "admin", "help", "thanks", "anyone", "want", "trade",
+        "diamonds", "for", "emeralds", "netherite", "build", "castle", "world", "flatlands", "creative", "survival", "redstone",
+        "farm", "broke", "after", "restart", "lol", "bruh", "nice", "good", "game", "ban", "appeal", "forum", "discord", "link"
+    };
+    private static final String[] QUERIES =
+    {
+        "LagMaster3000", "teleport", "netherite", "//set", "flatlands", "Can't keep up", "issued server command", "xyzzy", "lava and",
+        "java.lang.NullPointerException"
+    };
+    private static final int WARMUP_ROUNDS = 3;
+
+    private SearchIndexCheck()
+    {
+    }
+
+    public static void main(final String args[])
+    {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final Random random = new Random(42);
+        final String[] lines = new String[count];
+        final SearchIndex index = new SearchIndex();
+        long characters = 0;
+        for (int i = 0; i < count; i++)
+        {
+            lines[i] = line(random, 150 + random.nextInt(51));
+            index.add(i, lines[i]);
+            characters += lines[i].length();
+        }
+        System.out.printf("%d lines of %.0f characters on average, %.1f index bytes per line%n", count, (double) characters / count,
+                (double) index.getRetainedBytes() / count);
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++)
+        {
+            long totalCandidates = 0;
+            long totalMatches = 0;
+            for (final String text : QUERIES)
+            {
+                final SearchIndex.Query query = SearchIndex.compile(text);
+                int candidates = 0;
+                int matches = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++)
+                {
+                    if (index.mayContain(i, query))
+                    {
+                        candidates++;
+                        if (query.matches(lines[i]))
+                        {
+                            matches++;
+                        }
+                    }
+                }
+                final long indexedNanos = System.nanoTime() - start;
+
+                int scanned = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < count; i++)
+                {
+                    if (query.matches(lines[i]))
+                    {
+                        scanned++;
+                    }
+                }
+                final long scanNanos = System.nanoTime() - start;
+
+                if (scanned != matches)
+                {
+                    System.out.println("Index missed " + (scanned - matches) + " lines containing '" + text + "'");
+                    System.exit(1);
+                }
+                totalCandidates += candidates;
+                totalMatches += matches;
+                if (round == WARMUP_ROUNDS)
+                {
+                    System.out.printf("%-32s %7d matches %7d false candidates (%5.2f%%)  indexed %6.1f ms  scan %6.1f ms%n", "'" + text + "'",
+                            matches, candidates - matches, 100.0 * (candidates - matches) / Math.max(1, count - matches),
+                            indexedNanos / 1e6, scanNanos / 1e6);
+                }
+            }
+            if (round == WARMUP_ROUNDS)
+            {
+                System.out.printf("%.2f%% of the lines without a match reached the text check%n",
+                        100.0 * (totalCandidates - totalMatches) / ((long) count * QUERIES.length - totalMatches));
+            }
+        }
+    }
+
+    // A log header, one of the common line shapes, then chat words up to the length
+    private static String line(final Random random, final int length)
+    {
+        final StringBuilder builder = new StringBuilder(length + 16);
+        builder.append(String.format(":[%02d:%02d:%02d INFO]: ", random.nextInt(24), random.nextInt(60), random.nextInt(60)));
+        final String name = NAMES[random.nextInt(NAMES.length)];
+        switch (random.nextInt(5))
+        {
+            case 0:
+                builder.append(name).append(" issued server command: /tp ").append(NAMES[random.nextInt(NAMES.length)]).append(' ');
+                break;
+            case 1:
+                builder.append("[TotalFreedomMod] [ADMIN] ").append(name).append(" [SrA]: ");
+                break;
+            case 2:
+                builder.append("WorldEdit: ").append(name).append(" used //set stone at (").append(random.nextInt(20000) - 10000).append(", ")
+                        .append(random.nextInt(256)).append(", ").append(random.nextInt(20000) - 10000).append(") in flatlands ");
+                break;
+            default:
+                builder.append('<').append(name).append("> ");
+                break;
+        }
+        while (builder.length() < length)
+        {
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        builder.setLength(length);
+        return builder.toString();
+    }
+}